@@ -1,56 +1,55 @@
 package com.blogspot.michaelsebero.movinglightsource;
 
+import com.blogspot.michaelsebero.movinglightsource.api.ILightEmitter;
+import com.blogspot.michaelsebero.movinglightsource.api.MovingLightApi;
 import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
-import com.blogspot.michaelsebero.movinglightsource.registries.BlockRegistry;
-import com.blogspot.michaelsebero.movinglightsource.tileentities.TileEntityMovingLightSource;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.ILightSource;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.LightSource;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.LightSourceProvider;
+import com.blogspot.michaelsebero.movinglightsource.lighting.HeldLightDebounce;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightChunkSaving;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightEngine;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightRegistry;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightShards;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightWorldListener;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightTracker;
 
-import net.minecraft.block.Block;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.entity.item.EntityItem;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.init.Blocks;
 import net.minecraft.item.Item;
-import net.minecraft.item.ItemStack;
-import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.AxisAlignedBB;
-import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.text.Style;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.event.ClickEvent;
 import net.minecraft.world.World;
+import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.RegistryEvent;
-import net.minecraftforge.event.entity.living.LivingEvent.LivingUpdateEvent;
+import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.item.ItemExpireEvent;
+import net.minecraftforge.event.entity.living.LivingDeathEvent;
+import net.minecraftforge.event.entity.living.LivingEquipmentChangeEvent;
+import net.minecraftforge.event.entity.living.LivingAttackEvent;
+import net.minecraftforge.event.entity.living.PotionEvent;
 import net.minecraftforge.event.entity.player.AttackEntityEvent;
+import net.minecraftforge.event.world.ChunkDataEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.client.event.ConfigChangedEvent.OnConfigChangedEvent;
 import net.minecraftforge.fml.common.eventhandler.EventPriority;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.common.gameevent.TickEvent.PlayerTickEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent.WorldTickEvent;
 
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 public class EventHandler 
 {
-    // Cache to track last light block placement per entity item
-    private static final Map<Integer, BlockPos> lastItemLightBlockPos = new HashMap<>();
-    private static final Map<Integer, Block> lastItemLightBlockType = new HashMap<>();
-    
-    // Track which EntityItem "owns" each light block position
-    private static final Map<BlockPos, Integer> itemLightBlockOwnership = new HashMap<>();
-    
-    // Cache for projectile lights (arrows, fireballs, etc.)
-    private static final Map<Integer, BlockPos> lastProjectileLightBlockPos = new HashMap<>();
-    private static final Map<BlockPos, Integer> projectileLightBlockOwnership = new HashMap<>();
-    
-    // Throttle for dropped items and projectiles
-    private static final int ITEM_LIGHT_UPDATE_INTERVAL = 2;
-    private static final int PROJECTILE_LIGHT_UPDATE_INTERVAL = 1; // Update every tick for fast movement
+    // Removals are event driven, this only catches owners that vanished without one
+    private static final int RESTING_LIGHT_CHECK_INTERVAL = 600;
     
     @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
     public void onEvent(RegistryEvent.NewRegistry event)
@@ -58,561 +57,524 @@ public class EventHandler
         // Can create registries here if needed
     }
     
+    /**
+     * Players, mobs and dropped items keep their light in a capability so it is only worked out when it changes
+     */
     @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
-    public void onEvent(LivingUpdateEvent event)
+    public void onEvent(AttachCapabilitiesEvent<Entity> event)
     {
-        EntityLivingBase entity = event.getEntityLiving();
-        
-        // Only process on server side
-        if (entity.world.isRemote) return;
-        
-        // Check if entity is burning and should emit light
-        if (entity.isBurning() && MainMod.allowBurningEntitiesToGiveOffLight)
+        Entity entity = event.getObject();
+        if (entity instanceof EntityLivingBase || entity instanceof EntityItem)
         {
-            placeLightBlockForLivingEntity(entity, BlockRegistry.MOVING_LIGHT_SOURCE_15);
-        }
-        // Check if entity is holding a light source (for non-player entities)
-        else if (!(entity instanceof EntityPlayer) && 
-                 BlockMovingLightSource.isHoldingLightItem(entity) && 
-                 MainMod.allowHeldItemsToGiveOffLight)
-        {
-            Block lightBlock = BlockMovingLightSource.lightBlockToPlace(entity);
-            if (lightBlock != Blocks.AIR)
-            {
-                placeLightBlockForLivingEntity(entity, lightBlock);
-            }
+            event.addCapability(LightSourceProvider.NAME, new LightSourceProvider(entity));
         }
     }
     
     /**
-     * Handle EntityItem lighting in WorldTickEvent
+     * Handle EntityItem and projectile lighting in WorldTickEvent
      */
     @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
     public void onEvent(WorldTickEvent event)
     {
-        // Only process on server side at end of tick
-        if (event.phase != TickEvent.Phase.END || event.world.isRemote) return;
+        if (event.world.isRemote) return;
+        
+        World world = event.world;
+        LightEngine engine = LightEngine.forWorld(world);
         
-        // Create a copy of the entity list to avoid ConcurrentModificationException
-        List<Entity> entityListCopy;
-        try
+        // Chunks may have unloaded since the engine last read them
+        if (event.phase == TickEvent.Phase.START)
         {
-            entityListCopy = new java.util.ArrayList<>(event.world.loadedEntityList);
+            engine.getChunkCache().clear();
+            return;
         }
-        catch (Exception e)
+        
+        // Config changes arrive on the client thread in singleplayer, the world catches up here;
+        // entities may give off light now that didn't before, e.g. ones given intrinsic light
+        if (engine.syncConfig())
         {
-            // If we can't copy the list, skip this tick
-            return;
+            addLivingCandidates(engine);
         }
         
         // Handle EntityItem lights if enabled
-        if (MainMod.allowEntityItemsToGiveOffLight && 
-            event.world.getTotalWorldTime() % ITEM_LIGHT_UPDATE_INTERVAL == 0)
+        LightTracker itemLights = engine.getItemLights();
+        if (MainMod.allowEntityItemsToGiveOffLight)
         {
-            Map<Integer, Boolean> seenItems = new HashMap<>();
+            // Only the items in this tick's shard are looked at, the rest keep their lights
+            LightShards itemShards = itemLights.getShards();
+            itemShards.nextShard();
             
-            for (Entity entity : entityListCopy)
+            // Index loop so nothing is copied; placing lights never adds entities
+            List<Entity> entities = world.loadedEntityList;
+            for (int i = 0; i < entities.size(); i++)
             {
+                Entity entity = entities.get(i);
                 if (entity instanceof EntityItem)
                 {
-                    EntityItem entityItem = (EntityItem) entity;
-                    seenItems.put(entityItem.getEntityId(), true);
-                    handleEntityItemLight(entityItem);
+                    itemShards.countCandidate();
+                    if (itemShards.isInShard(entity.getEntityId()) && !itemLights.isResting(entity))
+                    {
+                        handleEntityItemLight(itemLights, (EntityItem) entity);
+                    }
                 }
             }
             
-            cleanupOrphanedItemLights(event.world, seenItems);
+            // Items of this shard that were not offered lose their light here
+            itemLights.endPass();
+        }
+        else if (itemLights.hasLights())
+        {
+            itemLights.removeAll();
         }
         
         // Handle burning projectile lights if enabled
-        if (MainMod.allowBurningEntitiesToGiveOffLight && 
-            event.world.getTotalWorldTime() % PROJECTILE_LIGHT_UPDATE_INTERVAL == 0)
+        LightTracker projectileLights = engine.getProjectileLights();
+        if (MainMod.allowBurningEntitiesToGiveOffLight)
         {
-            Map<Integer, Boolean> seenProjectiles = new HashMap<>();
+            LightShards projectileShards = projectileLights.getShards();
+            projectileShards.nextShard();
+            
+            // Only then can a stuck arrow's fire have gone out while it rested
+            boolean hasResting = projectileLights.getRestingCount() > 0;
             
-            for (Entity entity : entityListCopy)
+            List<Entity> entities = world.loadedEntityList;
+            for (int i = 0; i < entities.size(); i++)
             {
+                Entity entity = entities.get(i);
+                
                 // Check if it's a projectile (not living, not item) and burning
                 if (!(entity instanceof EntityLivingBase) && 
                     !(entity instanceof EntityItem) && 
-                    entity.isBurning())
+                    !entity.isDead &&
+                    entity.isBurning() &&
+                    !LightRegistry.isIgnored(entity))
+                {
+                    projectileShards.countCandidate();
+                    if (projectileShards.isInShard(entity.getEntityId()) && !projectileLights.isResting(entity))
+                    {
+                        projectileLights.offer(entity, 15);
+                    }
+                }
+                else if (hasResting && !(entity instanceof EntityLivingBase) && !(entity instanceof EntityItem))
                 {
-                    seenProjectiles.put(entity.getEntityId(), true);
-                    handleBurningProjectileLight(entity);
+                    // A stuck arrow whose fire went out
+                    projectileLights.wake(entity.getEntityId());
                 }
             }
             
-            cleanupOrphanedProjectileLights(event.world, seenProjectiles);
+            projectileLights.endPass();
+        }
+        else if (projectileLights.hasLights())
+        {
+            projectileLights.removeAll();
+        }
+        
+        // Light giving potion effects that end this tick
+        engine.getPotions().tick(world);
+        
+        // One pass over the living entities that may give off light, players included
+        updateLivingLights(engine);
+        engine.getLivingLights().endPass();
+        engine.getIntrinsicLights().endPass();
+        
+        // Other entities whose light is set by other mods through the API
+        updateEmitterLights(engine);
+        engine.getEmitterLights().endPass();
+        
+        // Resting lights are woken or released by their owners' events; this is only a safety net
+        if (world.getTotalWorldTime() % RESTING_LIGHT_CHECK_INTERVAL == 0)
+        {
+            itemLights.wakeMissing();
+            projectileLights.wakeMissing();
+            engine.getLivingLights().wakeMissing();
+            engine.getIntrinsicLights().wakeMissing();
+            engine.getEmitterLights().wakeMissing();
         }
+        
+        engine.getChunkCache().clear();
     }
     
     /**
-     * Clean up light blocks for items that no longer exist
+     * Handle lighting for a single EntityItem
      */
-    private void cleanupOrphanedItemLights(World world, Map<Integer, Boolean> seenItems)
+    private void handleEntityItemLight(LightTracker itemLights, EntityItem entityItem)
     {
-        Iterator<Map.Entry<Integer, BlockPos>> iterator = lastItemLightBlockPos.entrySet().iterator();
+        if (entityItem.isDead) return;
         
-        while (iterator.hasNext())
+        // Cached per item, only worked out again when its stack is replaced
+        int lightLevel = LightSource.get(entityItem).getLightLevel();
+        
+        // Items that don't emit light are simply not offered, so any old light is removed
+        if (lightLevel > 0)
         {
-            Map.Entry<Integer, BlockPos> entry = iterator.next();
-            int entityId = entry.getKey();
-            
-            // If we didn't see this entity ID this tick, it's gone
-            if (!seenItems.containsKey(entityId))
-            {
-                BlockPos pos = entry.getValue();
-                if (pos != null)
-                {
-                    // Remove the light block if it exists and we own it
-                    Block block = world.getBlockState(pos).getBlock();
-                    if (block instanceof BlockMovingLightSource)
-                    {
-                        Integer owner = itemLightBlockOwnership.get(pos);
-                        if (owner != null && owner == entityId)
-                        {
-                            // Check if there's a tile entity - if so, mark it as from an item
-                            TileEntity te = world.getTileEntity(pos);
-                            if (te instanceof TileEntityMovingLightSource)
-                            {
-                                ((TileEntityMovingLightSource) te).markAsItemLight();
-                            }
-                            world.setBlockToAir(pos);
-                            itemLightBlockOwnership.remove(pos);
-                        }
-                    }
-                }
-                
-                // Remove from caches
-                iterator.remove();
-                lastItemLightBlockType.remove(entityId);
-            }
+            itemLights.offer(entityItem, lightLevel);
         }
     }
     
     /**
-     * Clean up light blocks for projectiles that no longer exist
+     * Moving lights are transient, keep them out of region files
      */
-    private void cleanupOrphanedProjectileLights(World world, Map<Integer, Boolean> seenProjectiles)
+    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
+    public void onEvent(ChunkDataEvent.Save event)
     {
-        Iterator<Map.Entry<Integer, BlockPos>> iterator = lastProjectileLightBlockPos.entrySet().iterator();
-        
-        while (iterator.hasNext())
+        LightChunkSaving.stripLights(event.getData().getCompoundTag("Level"));
+    }
+
+    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
+    public void onEvent(WorldEvent.Load event)
+    {
+        if (!event.getWorld().isRemote)
         {
-            Map.Entry<Integer, BlockPos> entry = iterator.next();
-            int entityId = entry.getKey();
-            
-            if (!seenProjectiles.containsKey(entityId))
-            {
-                BlockPos pos = entry.getValue();
-                if (pos != null)
-                {
-                    Block block = world.getBlockState(pos).getBlock();
-                    if (block instanceof BlockMovingLightSource)
-                    {
-                        Integer owner = projectileLightBlockOwnership.get(pos);
-                        if (owner != null && owner == entityId)
-                        {
-                            world.setBlockToAir(pos);
-                            projectileLightBlockOwnership.remove(pos);
-                        }
-                    }
-                }
-                
-                iterator.remove();
-            }
+            event.getWorld().addEventListener(new LightWorldListener(event.getWorld()));
         }
     }
-    
+
     /**
-     * Handle lighting for a single EntityItem
-     * NOW USES DYNAMIC DETECTION FOR ALL MODS!
+     * Release lights the moment their owner goes, instead of on the next pass
+     */
+    /**
+     * Only once the item is in the inventory; EntityItemPickupEvent fires every tick a player
+     * touches an item, even one it can't pick up
      */
-    private void handleEntityItemLight(EntityItem entityItem)
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PlayerEvent.ItemPickupEvent event)
     {
-        if (entityItem == null || entityItem.isDead) return;
-        
-        ItemStack stack = entityItem.getItem();
-        
-        // Use dynamic light detection - works for ALL mods!
-        int lightLevel = BlockMovingLightSource.getItemLightLevel(stack);
-        
-        if (lightLevel > 0)
+        // A partly picked up stack stays where it is and keeps its light
+        if (event.getOriginalEntity().getItem().isEmpty())
         {
-            // Get the appropriate light block for this light level
-            Block lightBlock = BlockMovingLightSource.getLightBlockForLevel(lightLevel);
-            if (lightBlock != null && lightBlock != Blocks.AIR)
-            {
-                placeItemLight(entityItem, lightBlock);
-            }
+            releaseOwnerLight(event.getOriginalEntity());
         }
-        else
+    }
+
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(ItemExpireEvent event)
+    {
+        releaseOwnerLight(event.getEntityItem());
+    }
+
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(LivingDeathEvent event)
+    {
+        releaseOwnerLight(event.getEntityLiving());
+    }
+
+    private void releaseOwnerLight(Entity entity)
+    {
+        if (!entity.world.isRemote)
         {
-            // Item doesn't emit light - remove any existing light block
-            removeItemLight(entityItem);
+            LightEngine engine = LightEngine.getIfPresent(entity.world);
+            if (engine != null)
+            {
+                engine.releaseOwner(entity.getEntityId());
+            }
         }
     }
-    
+
     /**
-     * Handle lighting for burning projectiles (arrows, fireballs, etc.)
+     * A player leaving through a portal is removed from the old world without dying, so its
+     * light is handed off here rather than left until its tile entity times out
      */
-    private void handleBurningProjectileLight(Entity projectile)
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PlayerEvent.PlayerChangedDimensionEvent event)
     {
-        if (projectile == null || projectile.isDead || !projectile.isBurning()) 
-        {
-            removeProjectileLight(projectile);
-            return;
-        }
-        
-        placeProjectileLight(projectile, BlockRegistry.MOVING_LIGHT_SOURCE_15);
+        handOffPlayerLight(event.player, false);
+    }
+    
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PlayerEvent.PlayerRespawnEvent event)
+    {
+        handOffPlayerLight(event.player, false);
+    }
+    
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        handOffPlayerLight(event.player, true);
     }
     
     /**
-     * Place light block for burning projectile
+     * Release a player's light in every world it has left through the ownership index, and
+     * start it fresh as a candidate in the world it is in now
+     * Entity ids are unique across worlds, and a respawned player keeps its id
      */
-    private void placeProjectileLight(Entity projectile, Block lightBlock)
+    private void handOffPlayerLight(EntityPlayer player, boolean loggedOut)
     {
-        int entityId = projectile.getEntityId();
-        World world = projectile.world;
-        
-        // Determine projectile position
-        int blockX = MathHelper.floor(projectile.posX);
-        int blockY = MathHelper.floor(projectile.posY);
-        int blockZ = MathHelper.floor(projectile.posZ);
-        
-        // Try positions: at projectile location and one block up
-        BlockPos[] positionsToTry = {
-            new BlockPos(blockX, blockY, blockZ),
-            new BlockPos(blockX, blockY + 1, blockZ)
-        };
-        
-        BlockPos lastPos = lastProjectileLightBlockPos.get(entityId);
-        BlockPos targetPos = null;
-        
-        // Find a valid position to place the light
-        for (BlockPos pos : positionsToTry)
-        {
-            Block blockAtLocation = world.getBlockState(pos).getBlock();
-            
-            if (blockAtLocation == Blocks.AIR || blockAtLocation instanceof BlockMovingLightSource)
-            {
-                targetPos = pos;
-                break;
-            }
-        }
-        
-        // If no valid position found, keep trying
-        if (targetPos == null)
+        if (player.world.isRemote)
         {
             return;
         }
         
-        // Remove old light block if projectile moved to a different position
-        if (lastPos != null && !lastPos.equals(targetPos))
+        int id = player.getEntityId();
+        for (LightEngine engine : LightEngine.getEngines())
         {
-            removeProjectileLightAtPos(world, lastPos, entityId);
+            if (loggedOut || engine.getWorld() != player.world)
+            {
+                engine.releaseOwner(id);
+                engine.removeEntity(id);
+            }
         }
         
-        // Check if light already exists at target position
-        Block blockAtLocation = world.getBlockState(targetPos).getBlock();
-        
-        if (blockAtLocation == Blocks.AIR)
-        {
-            // Empty space - place light block without tile entity
-            world.setBlockState(targetPos, lightBlock.getDefaultState(), 3);
-            lastProjectileLightBlockPos.put(entityId, targetPos);
-            projectileLightBlockOwnership.put(targetPos, entityId);
-        }
-        else if (blockAtLocation instanceof BlockMovingLightSource)
+        if (!loggedOut)
         {
-            // Already a light block - just update cache to maintain ownership
-            lastProjectileLightBlockPos.put(entityId, targetPos);
-            projectileLightBlockOwnership.put(targetPos, entityId);
+            LightSource.get(player).invalidate();
+            LightEngine.forWorld(player.world).onLightChanged(player);
         }
     }
     
     /**
-     * Remove light block for projectile
+     * A respawned player, or one back from the End, is a new entity; keep the light other mods
+     * set through the API, the join event then picks it up
      */
-    private void removeProjectileLight(Entity projectile)
+    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
+    public void onEvent(net.minecraftforge.event.entity.player.PlayerEvent.Clone event)
     {
-        if (projectile == null) return;
-        
-        int entityId = projectile.getEntityId();
-        BlockPos lastPos = lastProjectileLightBlockPos.get(entityId);
-        
-        if (lastPos != null)
+        ILightEmitter original = MovingLightApi.getEmitter(event.getOriginal());
+        ILightEmitter clone = MovingLightApi.getEmitter(event.getEntityPlayer());
+        if (original != null && clone != null)
         {
-            removeProjectileLightAtPos(projectile.world, lastPos, entityId);
-            lastProjectileLightBlockPos.remove(entityId);
+            clone.setEmittedLight(original.getEmittedLight());
         }
     }
     
-    /**
-     * Remove projectile light block at specific position
-     */
-    private void removeProjectileLightAtPos(World world, BlockPos pos, int entityId)
+    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
+    public void onEvent(WorldEvent.Unload event)
     {
-        Block block = world.getBlockState(pos).getBlock();
-        if (block instanceof BlockMovingLightSource)
+        if (!event.getWorld().isRemote)
         {
-            Integer owner = projectileLightBlockOwnership.get(pos);
-            if (owner == null || owner == entityId)
-            {
-                world.setBlockToAir(pos);
-                projectileLightBlockOwnership.remove(pos);
-            }
+            LightEngine.unload(event.getWorld());
         }
     }
-    
+
     /**
-     * Place light block for EntityItem
+     * Offer the lights of the living entities that may give off light, players included
+     * Candidates that no longer give off light are dropped until an event adds them again
      */
-    private void placeItemLight(EntityItem entityItem, Block lightBlock)
+    private void updateLivingLights(LightEngine engine)
     {
-        int entityId = entityItem.getEntityId();
-        World world = entityItem.world;
-        
-        // Determine item position
-        int blockX = MathHelper.floor(entityItem.posX);
-        int blockY = MathHelper.floor(entityItem.posY);
-        int blockZ = MathHelper.floor(entityItem.posZ);
-        
-        // Try placing at item position first, then one block up if needed
-        BlockPos[] positionsToTry = {
-            new BlockPos(blockX, blockY, blockZ),
-            new BlockPos(blockX, blockY + 1, blockZ)
-        };
-        
-        BlockPos lastPos = lastItemLightBlockPos.get(entityId);
-        Block lastBlock = lastItemLightBlockType.get(entityId);
-        
-        BlockPos targetPos = null;
-        
-        // Find a valid position to place the light
-        for (BlockPos pos : positionsToTry)
-        {
-            Block blockAtLocation = world.getBlockState(pos).getBlock();
-            
-            if (blockAtLocation == Blocks.AIR || blockAtLocation instanceof BlockMovingLightSource)
-            {
-                targetPos = pos;
-                break;
-            }
-        }
-        
-        // If no valid position found, keep trying
-        if (targetPos == null)
-        {
-            return;
-        }
-        
-        // Optimization: Only update if position or light level changed
-        if (targetPos.equals(lastPos) && lightBlock == lastBlock)
-        {
-            // Position hasn't changed, but make sure tile entity knows about the item
-            TileEntity te = world.getTileEntity(targetPos);
-            if (te instanceof TileEntityMovingLightSource)
+        LightTracker livingLights = engine.getLivingLights();
+        LightTracker intrinsicLights = engine.getIntrinsicLights();
+        LightShards intrinsicShards = intrinsicLights.getShards();
+        intrinsicShards.setMinShardCount(MainMod.intrinsicLightUpdateTicks);
+        intrinsicShards.nextShard();
+        HeldLightDebounce heldLightDebounce = engine.getHeldLightDebounce();
+        long now = engine.getWorld().getTotalWorldTime();
+        ObjectIterator<EntityLivingBase> candidates = engine.getLivingCandidates().iterator();
+        
+        while (candidates.hasNext())
+        {
+            EntityLivingBase entity = candidates.next();
+            if (entity.isDead)
             {
-                ((TileEntityMovingLightSource) te).setTrackedItem(entityItem);
+                candidates.remove();
+                continue;
             }
-            return;
-        }
-        
-        // Remove old light block if item moved
-        if (lastPos != null && !lastPos.equals(targetPos))
-        {
-            removeItemLightAtPos(world, lastPos, entityId);
-        }
-        
-        // Place or update light block at target position
-        Block blockAtLocation = world.getBlockState(targetPos).getBlock();
-        
-        if (blockAtLocation == Blocks.AIR)
-        {
-            // Empty space - place light block
-            world.setBlockState(targetPos, lightBlock.getDefaultState());
             
-            // Set the tile entity to track this item
-            TileEntity te = world.getTileEntity(targetPos);
-            if (te instanceof TileEntityMovingLightSource)
+            ILightSource lightSource = LightSource.get(entity);
+            int lightLevel = lightSource.getLightLevel();
+            if (lightSource.getReason() == ILightSource.Reason.HELD_ITEM || lightSource.getReason() == ILightSource.Reason.NONE)
             {
-                ((TileEntityMovingLightSource) te).setTrackedItem(entityItem);
+                // Held lights turn on and off a few ticks late, and a light that is turning off keeps the entity a candidate
+                lightLevel = heldLightDebounce.getLightLevel(entity.getEntityId(), lightLevel, now);
             }
             
-            updateItemCache(entityId, targetPos, lightBlock);
-            itemLightBlockOwnership.put(targetPos, entityId);
-        }
-        else if (blockAtLocation instanceof BlockMovingLightSource)
-        {
-            // Already a light block
-            Integer owner = itemLightBlockOwnership.get(targetPos);
-            float currentLight = blockAtLocation.getLightValue(blockAtLocation.getDefaultState());
-            float desiredLight = lightBlock.getLightValue(lightBlock.getDefaultState());
-            
-            // Update if we own it or there's no owner
-            if (owner == null || owner == entityId)
+            double lightY = getLivingLightY(entity);
+            if (lightLevel <= 0)
             {
-                if (Math.abs(currentLight - desiredLight) > 0.001f)
+                // A light still waiting to turn on keeps the entity, nothing else would add it again
+                if (!heldLightDebounce.isPending(entity.getEntityId()))
                 {
-                    world.setBlockState(targetPos, lightBlock.getDefaultState());
+                    candidates.remove();
                 }
-                
-                // Make sure tile entity tracks this item
-                TileEntity te = world.getTileEntity(targetPos);
-                if (te instanceof TileEntityMovingLightSource)
+            }
+            else if (LightRegistry.getEntityLight(entity) > 0)
+            {
+                // Glowing mobs such as blazes come in crowds, so they take turns; they stay in this
+                // tracker whatever else lights them, as a blaze's fire comes and goes with its charge
+                // and two trackers must never claim the same entity's light
+                intrinsicShards.countCandidate();
+                if (intrinsicShards.isInShard(entity.getEntityId()))
                 {
-                    ((TileEntityMovingLightSource) te).setTrackedItem(entityItem);
+                    if (lightSource.getReason() == ILightSource.Reason.BURNING)
+                    {
+                        intrinsicLights.wake(entity.getEntityId());
+                    }
+                    
+                    if (!intrinsicLights.isResting(entity, lightY))
+                    {
+                        intrinsicLights.offer(entity, lightY, lightLevel);
+                    }
                 }
-                
-                updateItemCache(entityId, targetPos, lightBlock);
-                itemLightBlockOwnership.put(targetPos, entityId);
+            }
+            else if (lightSource.getReason() == ILightSource.Reason.BURNING)
+            {
+                // Fire goes out on its own, so burning entities don't rest
+                livingLights.wake(entity.getEntityId());
+                livingLights.offer(entity, lightY, lightLevel);
+            }
+            // Resting entities such as armor stands holding torches only wake when they move or their equipment changes
+            else if (!livingLights.isResting(entity, lightY))
+            {
+                livingLights.offer(entity, lightY, lightLevel);
             }
         }
     }
     
     /**
-     * Remove light block for EntityItem
+     * Offer the lights of entities other than living entities and items that were given one
+     * through the API or IMC
+     * The level is only ever pushed or registered, the pass reads it as it was left
      */
-    private void removeItemLight(EntityItem entityItem)
+    private void updateEmitterLights(LightEngine engine)
     {
-        int entityId = entityItem.getEntityId();
-        BlockPos lastPos = lastItemLightBlockPos.get(entityId);
+        LightTracker emitterLights = engine.getEmitterLights();
+        ObjectIterator<Entity> candidates = engine.getEmitterCandidates().iterator();
         
-        if (lastPos != null)
+        while (candidates.hasNext())
+        {
+            Entity entity = candidates.next();
+            int lightLevel = getEmitterLightLevel(entity);
+            if (entity.isDead || lightLevel <= 0)
+            {
+                candidates.remove();
+            }
+            else if (!emitterLights.isResting(entity))
+            {
+                emitterLights.offer(entity, lightLevel);
+            }
+        }
+    }
+    
+    private static int getEmitterLightLevel(Entity entity)
+    {
+        return Math.max(MovingLightApi.getEmittedLight(entity), LightRegistry.getEntityLight(entity));
+    }
+    
+    /**
+     * Add a living entity to the living pass if it may give off light
+     */
+    private static void addLivingCandidate(EntityLivingBase entity)
+    {
+        if (!entity.world.isRemote)
         {
-            removeItemLightAtPos(entityItem.world, lastPos, entityId);
-            clearItemCache(entityId);
+            LightEngine.forWorld(entity.world).getLivingCandidates().add(entity);
         }
     }
     
     /**
-     * Remove item light block at specific position
+     * Add every loaded living entity of a world that gives off light, for when there was no event to add them
      */
-    private void removeItemLightAtPos(World world, BlockPos pos, int entityId)
+    private static void addLivingCandidates(LightEngine engine)
     {
-        Block block = world.getBlockState(pos).getBlock();
-        if (block instanceof BlockMovingLightSource)
+        List<Entity> entities = engine.getWorld().loadedEntityList;
+        for (int i = 0; i < entities.size(); i++)
         {
-            Integer owner = itemLightBlockOwnership.get(pos);
-            if (owner == null || owner == entityId)
+            Entity entity = entities.get(i);
+            if (entity instanceof EntityLivingBase && LightSource.get(entity).getLightLevel() > 0)
             {
-                // Mark tile entity as item light before removing
-                TileEntity te = world.getTileEntity(pos);
-                if (te instanceof TileEntityMovingLightSource)
-                {
-                    ((TileEntityMovingLightSource) te).markAsItemLight();
-                }
-                world.setBlockToAir(pos);
-                itemLightBlockOwnership.remove(pos);
+                engine.getLivingCandidates().add((EntityLivingBase) entity);
             }
         }
     }
-
-    @SuppressWarnings("deprecation")
-    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
-    public void onEvent(PlayerTickEvent event)
-    {        
-        // Handle server-side light placement
-        if (event.phase == TickEvent.Phase.START && !event.player.world.isRemote)
+    
+    private static double getLivingLightY(EntityLivingBase entity)
+    {
+        if (entity instanceof EntityPlayer)
         {
-            handlePlayerLightPlacement(event.player);
+            return entity.posY - 0.2D - entity.getYOffset() + 1.0D;
         }
+        
+        return entity.posY - 0.2D + 1.0D;
     }
     
     /**
-     * Handle light block placement for players holding light sources
+     * Changing held items or armor can change an entity's light, so a resting light has to wake
+     * Also fires on an entity's first tick, which picks up entities loaded with a torch in hand
      */
-    private void handlePlayerLightPlacement(EntityPlayer player)
+    @SubscribeEvent(priority=EventPriority.NORMAL, receiveCanceled=true)
+    public void onEvent(LivingEquipmentChangeEvent event)
     {
-        if (!BlockMovingLightSource.isHoldingLightItem(player) || !MainMod.allowHeldItemsToGiveOffLight)
-        {
-            return;
-        }
-        
-        // Determine player position (foot level)
-        int blockX = MathHelper.floor(player.posX);
-        int blockY = MathHelper.floor(player.posY - 0.2D - player.getYOffset());
-        int blockZ = MathHelper.floor(player.posZ);
-        BlockPos targetPos = new BlockPos(blockX, blockY, blockZ).up();
-        
-        // Determine which light block should be placed
-        Block desiredLightBlock = BlockMovingLightSource.lightBlockToPlace(player);
-        Block blockAtLocation = player.world.getBlockState(targetPos).getBlock();
-        
-        if (blockAtLocation == Blocks.AIR)
+        EntityLivingBase entity = event.getEntityLiving();
+        LightSource.get(entity).invalidate();
+        if (!entity.world.isRemote)
         {
-            // Empty space - place light block
-            player.world.setBlockState(targetPos, desiredLightBlock.getDefaultState());
+            // Wakes whichever tracker holds its light and makes it a candidate
+            LightEngine.forWorld(entity.world).onLightChanged(entity);
         }
-        else if (blockAtLocation instanceof BlockMovingLightSource)
+    }
+    
+    /**
+     * Entities catching fire take fire damage within a second, which makes them candidates
+     */
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(LivingAttackEvent event)
+    {
+        if (event.getSource().isFireDamage())
         {
-            // Already a light block - check if light level needs updating
-            float currentLight = blockAtLocation.getLightValue(blockAtLocation.getDefaultState());
-            float desiredLight = desiredLightBlock.getLightValue(desiredLightBlock.getDefaultState());
-            
-            if (Math.abs(currentLight - desiredLight) > 0.001f)
-            {
-                player.world.setBlockState(targetPos, desiredLightBlock.getDefaultState());
-            }
+            addLivingCandidate(event.getEntityLiving());
         }
     }
     
     /**
-     * Place light blocks for non-player living entities
+     * Entities that join already burning or holding a light, or with light set through the API or IMC
      */
-    private void placeLightBlockForLivingEntity(EntityLivingBase entity, Block lightBlock)
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(EntityJoinWorldEvent event)
     {
-        if (entity == null || lightBlock == null) return;
-        
-        // Determine entity position
-        int blockX = MathHelper.floor(entity.posX);
-        int blockY = MathHelper.floor(entity.posY - 0.2D);
-        int blockZ = MathHelper.floor(entity.posZ);
-        BlockPos targetPos = new BlockPos(blockX, blockY, blockZ).up();
-        
-        Block blockAtLocation = entity.world.getBlockState(targetPos).getBlock();
+        if (event.getWorld().isRemote)
+        {
+            return;
+        }
         
-        if (blockAtLocation == Blocks.AIR)
+        if (!(event.getEntity() instanceof EntityLivingBase) && !(event.getEntity() instanceof EntityItem))
         {
-            entity.world.setBlockState(targetPos, lightBlock.getDefaultState());
+            if (getEmitterLightLevel(event.getEntity()) > 0)
+            {
+                LightEngine.forWorld(event.getWorld()).onLightChanged(event.getEntity());
+            }
         }
-        else if (blockAtLocation instanceof BlockMovingLightSource)
+        else if (event.getEntity() instanceof EntityLivingBase)
         {
-            float currentLight = blockAtLocation.getLightValue(blockAtLocation.getDefaultState());
-            float desiredLight = lightBlock.getLightValue(lightBlock.getDefaultState());
+            EntityLivingBase entity = (EntityLivingBase) event.getEntity();
+            
+            // Effects loaded with the entity, or brought along from another dimension, fire no added event
+            ILightSource lightSource = LightSource.get(entity);
+            lightSource.setPotionLight(0);
+            LightEngine.forWorld(event.getWorld()).getPotions().addActive(entity);
             
-            if (Math.abs(currentLight - desiredLight) > 0.001f)
+            // Equipment set before joining fires no change event
+            lightSource.invalidate();
+            if (lightSource.getLightLevel() > 0)
             {
-                entity.world.setBlockState(targetPos, lightBlock.getDefaultState());
+                addLivingCandidate(entity);
             }
         }
     }
     
     /**
-     * Update item light block cache
+     * Light giving effects are scheduled to end with the effect, nothing polls for them
      */
-    private void updateItemCache(int entityId, BlockPos pos, Block block)
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PotionEvent.PotionAddedEvent event)
     {
-        lastItemLightBlockPos.put(entityId, pos);
-        lastItemLightBlockType.put(entityId, block);
+        EntityLivingBase entity = event.getEntityLiving();
+        if (!entity.world.isRemote)
+        {
+            // An effect added on top of an older one lasts at least as long as the longer of them
+            int duration = event.getPotionEffect().getDuration();
+            if (event.getOldPotionEffect() != null)
+            {
+                duration = Math.max(duration, event.getOldPotionEffect().getDuration());
+            }
+            LightEngine.forWorld(entity.world).getPotions().add(entity, event.getPotionEffect().getPotion(), duration);
+        }
     }
     
-    /**
-     * Clear cache for item
-     */
-    private void clearItemCache(int entityId)
+    @SubscribeEvent(priority=EventPriority.LOWEST)
+    public void onEvent(PotionEvent.PotionRemoveEvent event)
     {
-        BlockPos oldPos = lastItemLightBlockPos.remove(entityId);
-        lastItemLightBlockType.remove(entityId);
-        
-        if (oldPos != null)
+        EntityLivingBase entity = event.getEntityLiving();
+        if (!entity.world.isRemote)
         {
-            Integer owner = itemLightBlockOwnership.get(oldPos);
-            if (owner != null && owner == entityId)
-            {
-                itemLightBlockOwnership.remove(oldPos);
-            }
+            LightEngine.forWorld(entity.world).getPotions().remove(entity, event.getPotion());
         }
     }
     
@@ -628,6 +590,10 @@ public class EventHandler
             if (MainMod.allowTorchesToBurnEntities && event.getTarget() != null)
             {
                 event.getTarget().setFire(10);
+                if (event.getTarget() instanceof EntityLivingBase)
+                {
+                    addLivingCandidate((EntityLivingBase) event.getTarget());
+                }
             }
         }
     }
@@ -641,13 +607,11 @@ public class EventHandler
             MainMod.config.save();
             MainMod.proxy.syncConfig();
             
-            // Clear caches when config changes
-            lastItemLightBlockPos.clear();
-            lastItemLightBlockType.clear();
-            itemLightBlockOwnership.clear();
-            lastProjectileLightBlockPos.clear();
-            projectileLightBlockOwnership.clear();
+            // This runs on the client thread in singleplayer, so the worlds drop their tracked
+            // lights on their own next tick and the next pass re-places what is still wanted
+            LightSource.invalidateAll();
             BlockMovingLightSource.clearCache();
+            LightEngine.onConfigChanged();
         }
     }
 }
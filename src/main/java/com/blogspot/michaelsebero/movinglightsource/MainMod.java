@@ -31,6 +31,9 @@ import net.minecraftforge.fml.common.Mod.EventHandler;
 import net.minecraftforge.fml.common.Mod.Instance;
 import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLInterModComms;
+import net.minecraftforge.fml.common.event.FMLLoadCompleteEvent;
+import net.minecraftforge.fml.common.event.FMLModIdMappingEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
@@ -74,6 +77,23 @@ public class MainMod
     public static boolean allowBurningEntitiesToGiveOffLight = true;
     public static boolean allowTorchesToBurnEntities = true;
     public static boolean allowEntityItemsToGiveOffLight = true;
+    public static double lightClusterRadius = 2.0D;
+    public static boolean suppressLightsInAmbientLight = true;
+    public static double lodFastSpeed = 0.35D;
+    public static int lodFastKeepDistance = 4;
+    public static double lodFarDistance = 48.0D;
+    public static int lodFarKeepDistance = 4;
+    public static int lodFarLevelDrop = 0;
+    public static double lightLookaheadTicks = 2.0D;
+    public static int lightLookaheadTolerance = 1;
+    public static int lightUpdatesPerTick = 64;
+    public static int lightMaxStaleTicks = 4;
+    public static int restingLightDelayTicks = 40;
+    public static String[] intrinsicEntityLights = {"minecraft:blaze=10", "minecraft:magma_cube=8"};
+    public static int intrinsicLightUpdateTicks = 4;
+    public static int heldLightOnDelayTicks = 3;
+    public static int heldLightOffDelayTicks = 5;
+    public static String[] potionLights = {"minecraft:glowing=10", "movinglightsource:radiance=15"};
     
     // instantiate creative tabs
 	// public static final CustomCreativeTab CREATIVE_TAB = new CustomCreativeTab();
@@ -148,6 +168,34 @@ public class MainMod
         proxy.fmlLifeCycleEvent(event);
     }
 
+	@EventHandler
+	// light sources declared by other mods, see LightRegistry for the messages
+	public void fmlLifeCycle(FMLInterModComms.IMCEvent event)
+	{
+        // DEBUG
+        System.out.println("IMC");
+        
+		proxy.fmlLifeCycleEvent(event);
+	}
+
+	@EventHandler
+	public void fmlLifeCycle(FMLLoadCompleteEvent event)
+	{
+        // DEBUG
+        System.out.println("Load complete");
+        
+		proxy.fmlLifeCycleEvent(event);
+	}
+
+	@EventHandler
+	public void fmlLifeCycle(FMLModIdMappingEvent event)
+	{
+        // DEBUG
+        System.out.println("Mod id mapping");
+        
+		proxy.fmlLifeCycleEvent(event);
+	}
+
 	@EventHandler
 	public void fmlLifeCycle(FMLServerAboutToStartEvent event)
 	{
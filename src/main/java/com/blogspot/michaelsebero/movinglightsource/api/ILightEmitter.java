@@ -0,0 +1,19 @@
+package com.blogspot.michaelsebero.movinglightsource.api;
+
+/**
+ * Light another mod makes an entity give off, e.g. from a backpack, a bauble, glowing armor
+ * or a mob that glows by itself
+ * Players, mobs and dropped items have one attached already; mods can attach LightEmitter,
+ * or their own implementation, to their other entities
+ * Change it through MovingLightApi.setEmittedLight so the light follows right away; it is
+ * never polled
+ */
+public interface ILightEmitter
+{
+    /**
+     * @return the light level, 0 for no light
+     */
+    int getEmittedLight();
+
+    void setEmittedLight(int lightLevel);
+}
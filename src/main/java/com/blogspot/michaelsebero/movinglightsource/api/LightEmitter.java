@@ -0,0 +1,47 @@
+package com.blogspot.michaelsebero.movinglightsource.api;
+
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.util.EnumFacing;
+import net.minecraftforge.common.capabilities.Capability;
+
+/**
+ * Default ILightEmitter, a plain light level
+ */
+public class LightEmitter implements ILightEmitter
+{
+    private int lightLevel = 0;
+
+    @Override
+    public int getEmittedLight()
+    {
+        return lightLevel;
+    }
+
+    @Override
+    public void setEmittedLight(int parLightLevel)
+    {
+        lightLevel = MovingLightApi.clampLightLevel(parLightLevel);
+    }
+
+    /**
+     * Saves the level, with the entity for the light this mod attaches
+     */
+    public static class Storage implements Capability.IStorage<ILightEmitter>
+    {
+        @Override
+        public NBTBase writeNBT(Capability<ILightEmitter> capability, ILightEmitter instance, EnumFacing side)
+        {
+            return new NBTTagByte((byte) instance.getEmittedLight());
+        }
+
+        @Override
+        public void readNBT(Capability<ILightEmitter> capability, ILightEmitter instance, EnumFacing side, NBTBase nbt)
+        {
+            if (nbt instanceof NBTTagByte)
+            {
+                instance.setEmittedLight(((NBTTagByte) nbt).getByte());
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.blogspot.michaelsebero.movinglightsource.api;
+
+import javax.annotation.Nullable;
+
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightEngine;
+
+import net.minecraft.entity.Entity;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.CapabilityInject;
+import net.minecraftforge.common.capabilities.CapabilityManager;
+
+/**
+ * Entry point for other mods
+ * Call from the server thread whenever an entity's light changes:
+ * MovingLightApi.setEmittedLight(entity, 12) when a glowing bauble is equipped,
+ * MovingLightApi.setEmittedLight(entity, 0) when it comes off
+ * The level is saved with living entities and dropped items and carried over to a player's
+ * new entity on respawn or leaving the End, so it only has to be set again when it changes
+ */
+public final class MovingLightApi
+{
+    @CapabilityInject(ILightEmitter.class)
+    public static Capability<ILightEmitter> LIGHT_EMITTER = null;
+
+    private MovingLightApi()
+    {
+        // Static helpers only
+    }
+
+    public static void register()
+    {
+        CapabilityManager.INSTANCE.register(ILightEmitter.class, new LightEmitter.Storage(), LightEmitter::new);
+    }
+
+    /**
+     * Set the light an entity gives off, on top of what it holds or whether it burns
+     * @return false if the entity has no ILightEmitter attached
+     */
+    public static boolean setEmittedLight(Entity entity, int lightLevel)
+    {
+        ILightEmitter emitter = getEmitter(entity);
+        if (emitter == null)
+        {
+            return false;
+        }
+
+        emitter.setEmittedLight(lightLevel);
+        if (!entity.world.isRemote)
+        {
+            LightEngine.forWorld(entity.world).onLightChanged(entity);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the light set for an entity through the API, 0 if none
+     */
+    public static int getEmittedLight(Entity entity)
+    {
+        ILightEmitter emitter = getEmitter(entity);
+        return emitter == null ? 0 : emitter.getEmittedLight();
+    }
+
+    @Nullable
+    public static ILightEmitter getEmitter(Entity entity)
+    {
+        return LIGHT_EMITTER == null ? null : entity.getCapability(LIGHT_EMITTER, null);
+    }
+
+    public static int clampLightLevel(int lightLevel)
+    {
+        return Math.max(0, Math.min(15, lightLevel));
+    }
+}
@@ -18,6 +18,8 @@ package com.blogspot.michaelsebero.movinglightsource.blocks;
 
 import java.util.HashMap;
 
+import com.blogspot.michaelsebero.movinglightsource.lighting.ItemLightCache;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightRegistry;
 import com.blogspot.michaelsebero.movinglightsource.registries.BlockRegistry;
 import com.blogspot.michaelsebero.movinglightsource.tileentities.TileEntityMovingLightSource;
 import com.blogspot.michaelsebero.movinglightsource.utilities.Utilities;
@@ -40,6 +42,8 @@ import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.World;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.fluids.FluidUtil;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 
@@ -113,6 +117,24 @@ public class BlockMovingLightSource extends Block implements ITileEntityProvider
         
         Item item = stack.getItem();
         
+        // Levels other mods registered through IMC win
+        int registeredLevel = LightRegistry.getItemLight(item);
+        if (registeredLevel >= 0)
+        {
+            return registeredLevel;
+        }
+        
+        return ItemLightCache.getLightLevel(stack);
+    }
+    
+    /**
+     * Work out the light level of a stack that isn't in the item light cache
+     * Also finds lava and glowing fluids in any mod's buckets and tanks
+     */
+    public static int resolveItemLightLevel(ItemStack stack)
+    {
+        Item item = stack.getItem();
+        
         // First check if it's an ItemBlock with a light-emitting block
         if (item instanceof ItemBlock)
         {
@@ -137,6 +159,13 @@ public class BlockMovingLightSource extends Block implements ITileEntityProvider
             return staticBlock.getLightValue(staticBlock.getDefaultState());
         }
         
+        // Fluid containers give off the light of what they hold
+        FluidStack fluid = FluidUtil.getFluidContained(stack);
+        if (fluid != null && fluid.getFluid() != null)
+        {
+            return Math.max(0, Math.min(15, fluid.getFluid().getLuminosity(fluid)));
+        }
+        
         return 0;
     }
     
@@ -171,18 +200,27 @@ public class BlockMovingLightSource extends Block implements ITileEntityProvider
         return Blocks.AIR;
     }
     
+    /**
+     * Light level of the brighter of an entity's two held items
+     * Consumers should read the entity's cached LightSource instead of calling this every tick
+     */
+    public static int getHeldLightLevel(EntityLivingBase entity)
+    {
+        if (entity == null)
+        {
+            return 0;
+        }
+        
+        return Math.max(getItemLightLevel(entity.getHeldItemMainhand()), getItemLightLevel(entity.getHeldItemOffhand()));
+    }
+    
     /**
      * Check if entity is holding a light-emitting item in either hand
      * NOW WORKS WITH ALL MODS!
      */
     public static boolean isHoldingLightItem(EntityLivingBase entity)
     {
-        if (entity == null) return false;
-        
-        ItemStack mainHand = entity.getHeldItemMainhand();
-        ItemStack offHand = entity.getHeldItemOffhand();
-        
-        return getItemLightLevel(mainHand) > 0 || getItemLightLevel(offHand) > 0;
+        return getHeldLightLevel(entity) > 0;
     }
     
     /**
@@ -191,31 +229,15 @@ public class BlockMovingLightSource extends Block implements ITileEntityProvider
      */
     public static Block lightBlockToPlace(EntityLivingBase entity)
     {
-        if (entity == null)
-        {
-            return Blocks.AIR;
-        }
-        
-        ItemStack mainHand = entity.getHeldItemMainhand();
-        ItemStack offHand = entity.getHeldItemOffhand();
-        
-        // Get light levels for both hands
-        int mainHandLight = getItemLightLevel(mainHand);
-        int offHandLight = getItemLightLevel(offHand);
-        
-        // Use the higher light level
-        int maxLight = Math.max(mainHandLight, offHandLight);
-        
-        return getLightBlockForLevel(maxLight);
+        return getLightBlockForLevel(getHeldLightLevel(entity));
     }
     
     /**
-     * Clear cache - called when needed (e.g., dimension change, world unload)
+     * Clear the item light cache, e.g. after a config change
      */
     public static void clearCache()
     {
-        // This method exists for compatibility with EventHandler
-        // No actual cache to clear in this simplified version
+        ItemLightCache.clear();
     }
 
     @Override
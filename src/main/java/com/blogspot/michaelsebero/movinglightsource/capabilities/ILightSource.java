@@ -0,0 +1,36 @@
+package com.blogspot.michaelsebero.movinglightsource.capabilities;
+
+/**
+ * Light an entity gives off, and why
+ * Attached to players, mobs and dropped items so the light is worked out once instead of
+ * by every consumer on every tick
+ */
+public interface ILightSource
+{
+    enum Reason
+    {
+        NONE,
+        HELD_ITEM,
+        BURNING,
+        INTRINSIC,
+        POTION,
+        EMITTER
+    }
+
+    /**
+     * @return the light level, 0 for no light
+     */
+    int getLightLevel();
+
+    Reason getReason();
+
+    /**
+     * Work the light out again on the next read, e.g. after an equipment change
+     */
+    void invalidate();
+
+    /**
+     * Set the light of the entity's brightest light giving potion effect, 0 for none
+     */
+    void setPotionLight(int lightLevel);
+}
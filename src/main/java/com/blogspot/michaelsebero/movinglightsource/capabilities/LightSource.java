@@ -0,0 +1,202 @@
+package com.blogspot.michaelsebero.movinglightsource.capabilities;
+
+import javax.annotation.Nullable;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.api.ILightEmitter;
+import com.blogspot.michaelsebero.movinglightsource.api.MovingLightApi;
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightRegistry;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.util.EnumFacing;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.CapabilityInject;
+import net.minecraftforge.common.capabilities.CapabilityManager;
+
+/**
+ * Cached light of one entity
+ * Equipment changes invalidate it through their event; catching fire or putting it out,
+ * a dropped item's stack being replaced and config changes are noticed on the next read
+ * by comparing what the cached value was worked out from
+ * Also the entity's ILightEmitter, so light set by other mods is part of the cached value
+ */
+public class LightSource implements ILightSource, ILightEmitter
+{
+    @CapabilityInject(ILightSource.class)
+    public static Capability<ILightSource> LIGHT_SOURCE = null;
+
+    // Stands in for entities without the capability, such as arrows
+    private static final ILightSource NO_LIGHT = new LightSource();
+
+    // Bumped by config changes, which can change any entity's light
+    private static volatile int configGeneration = 0;
+
+    private final Entity entity;
+    private boolean valid = false;
+    private int generation;
+    private boolean burning;
+    private ItemStack stack;
+    private int lightLevel = 0;
+    private Reason reason = Reason.NONE;
+    private int emittedLight = 0;
+    private int potionLight = 0;
+
+    public LightSource()
+    {
+        this(null);
+    }
+
+    public LightSource(@Nullable Entity parEntity)
+    {
+        entity = parEntity;
+    }
+
+    public static void register()
+    {
+        CapabilityManager.INSTANCE.register(ILightSource.class, new Storage(), LightSource::new);
+    }
+
+    /**
+     * @return the entity's light source, or one without light if it has none attached
+     */
+    public static ILightSource get(Entity entity)
+    {
+        ILightSource lightSource = LIGHT_SOURCE == null ? null : entity.getCapability(LIGHT_SOURCE, null);
+        return lightSource == null ? NO_LIGHT : lightSource;
+    }
+
+    /**
+     * Invalidate every entity's light, e.g. when the config changes
+     */
+    public static void invalidateAll()
+    {
+        configGeneration++;
+    }
+
+    @Override
+    public int getLightLevel()
+    {
+        update();
+        return lightLevel;
+    }
+
+    @Override
+    public Reason getReason()
+    {
+        update();
+        return reason;
+    }
+
+    @Override
+    public void invalidate()
+    {
+        valid = false;
+    }
+
+    @Override
+    public void setPotionLight(int lightLevel)
+    {
+        potionLight = lightLevel;
+        valid = false;
+    }
+
+    @Override
+    public int getEmittedLight()
+    {
+        return emittedLight;
+    }
+
+    @Override
+    public void setEmittedLight(int lightLevel)
+    {
+        emittedLight = MovingLightApi.clampLightLevel(lightLevel);
+        valid = false;
+    }
+
+    private void update()
+    {
+        if (entity == null)
+        {
+            return;
+        }
+
+        boolean burningNow = entity.isBurning();
+        ItemStack stackNow = entity instanceof EntityItem ? ((EntityItem) entity).getItem() : null;
+        if (valid && generation == configGeneration && burning == burningNow && stack == stackNow)
+        {
+            return;
+        }
+
+        valid = true;
+        generation = configGeneration;
+        burning = burningNow;
+        stack = stackNow;
+
+        // Entities other mods asked to leave alone
+        if (LightRegistry.isIgnored(entity))
+        {
+            setLight(0, Reason.NONE);
+        }
+        // Dropped items only ever glow from their stack
+        else if (stack != null)
+        {
+            setLight(MainMod.allowEntityItemsToGiveOffLight ? BlockMovingLightSource.getItemLightLevel(stack) : 0, Reason.HELD_ITEM);
+        }
+        else if (burning && MainMod.allowBurningEntitiesToGiveOffLight)
+        {
+            setLight(15, Reason.BURNING);
+        }
+        else if (entity instanceof EntityLivingBase && MainMod.allowHeldItemsToGiveOffLight)
+        {
+            setLight(BlockMovingLightSource.getHeldLightLevel((EntityLivingBase) entity), Reason.HELD_ITEM);
+        }
+        else
+        {
+            setLight(0, Reason.NONE);
+        }
+
+        int intrinsicLight = LightRegistry.getEntityLight(entity);
+        if (intrinsicLight > lightLevel)
+        {
+            setLight(intrinsicLight, Reason.INTRINSIC);
+        }
+
+        if (potionLight > lightLevel)
+        {
+            setLight(potionLight, Reason.POTION);
+        }
+
+        if (emittedLight > lightLevel)
+        {
+            setLight(emittedLight, Reason.EMITTER);
+        }
+    }
+
+    private void setLight(int parLightLevel, Reason parReason)
+    {
+        lightLevel = parLightLevel;
+        reason = parLightLevel > 0 ? parReason : Reason.NONE;
+    }
+
+    /**
+     * Nothing is saved, the light is worked out again after loading
+     */
+    public static class Storage implements Capability.IStorage<ILightSource>
+    {
+        @Override
+        public NBTBase writeNBT(Capability<ILightSource> capability, ILightSource instance, EnumFacing side)
+        {
+            return null;
+        }
+
+        @Override
+        public void readNBT(Capability<ILightSource> capability, ILightSource instance, EnumFacing side, NBTBase nbt)
+        {
+        }
+    }
+}
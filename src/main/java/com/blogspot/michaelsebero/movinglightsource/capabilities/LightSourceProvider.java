@@ -0,0 +1,64 @@
+package com.blogspot.michaelsebero.movinglightsource.capabilities;
+
+import javax.annotation.Nullable;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.api.MovingLightApi;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.ICapabilitySerializable;
+
+/**
+ * Attaches a LightSource to an entity, as both its ILightSource and its ILightEmitter
+ * Only the light set through the API is saved, the rest is worked out again after loading
+ */
+public class LightSourceProvider implements ICapabilitySerializable<NBTBase>
+{
+    public static final ResourceLocation NAME = new ResourceLocation(MainMod.MODID, "light_source");
+
+    private final LightSource lightSource;
+
+    public LightSourceProvider(Entity parEntity)
+    {
+        lightSource = new LightSource(parEntity);
+    }
+
+    @Override
+    public boolean hasCapability(Capability<?> capability, @Nullable EnumFacing facing)
+    {
+        return capability == LightSource.LIGHT_SOURCE || capability == MovingLightApi.LIGHT_EMITTER;
+    }
+
+    @Override
+    @Nullable
+    public <T> T getCapability(Capability<T> capability, @Nullable EnumFacing facing)
+    {
+        if (capability == LightSource.LIGHT_SOURCE)
+        {
+            return LightSource.LIGHT_SOURCE.cast(lightSource);
+        }
+
+        if (capability == MovingLightApi.LIGHT_EMITTER)
+        {
+            return MovingLightApi.LIGHT_EMITTER.cast(lightSource);
+        }
+
+        return null;
+    }
+
+    @Override
+    public NBTBase serializeNBT()
+    {
+        return MovingLightApi.LIGHT_EMITTER.writeNBT(lightSource, null);
+    }
+
+    @Override
+    public void deserializeNBT(NBTBase nbt)
+    {
+        MovingLightApi.LIGHT_EMITTER.readNBT(lightSource, null, nbt);
+    }
+}
@@ -0,0 +1,155 @@
+package com.blogspot.michaelsebero.movinglightsource.commands;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.blogspot.michaelsebero.movinglightsource.lighting.ItemLightCache;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightChunkCache;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightEngine;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightLod;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightSet;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightTracker;
+import com.blogspot.michaelsebero.movinglightsource.lighting.PackedLight;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+/**
+ * Debug command showing what the light engine is doing in each world
+ */
+public class CommandMovingLights extends CommandBase
+{
+    private static final int LIST_RADIUS = 32;
+    private static final int MAX_LISTED = 20;
+
+    @Override
+    public String getName()
+    {
+        return "movinglights";
+    }
+
+    @Override
+    public String getUsage(ICommandSender sender)
+    {
+        return "/movinglights <stats|list>";
+    }
+
+    @Override
+    public int getRequiredPermissionLevel()
+    {
+        return 2;
+    }
+
+    @Override
+    public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException
+    {
+        if (args.length < 1)
+        {
+            throw new WrongUsageException(getUsage(sender));
+        }
+
+        if ("stats".equals(args[0]))
+        {
+            sendStats(sender);
+        }
+        else if ("list".equals(args[0]))
+        {
+            sendLights(sender);
+        }
+        else
+        {
+            throw new WrongUsageException(getUsage(sender));
+        }
+    }
+
+    private void sendStats(ICommandSender sender)
+    {
+        for (LightEngine engine : LightEngine.getEngines())
+        {
+            LightChunkCache chunkCache = engine.getChunkCache();
+            long lookups = chunkCache.getHits() + chunkCache.getMisses();
+
+            sender.sendMessage(new TextComponentString(
+                "Dimension " + engine.getWorld().provider.getDimension()
+                + ": " + engine.getOwnership().size() + " lights"
+                + ", " + engine.getRestingLights() + " resting"
+                + ", " + engine.getLivingCandidates().size() + " living candidates"
+                + ", " + engine.getEmitterCandidates().size() + " API emitters"
+                + ", " + engine.getPotions().size() + " with light giving effects"
+                + ", " + engine.getSuppressedLights() + " suppressed by ambient light"
+                + ", " + engine.getSkippedPlacements() + " skipped in unloaded chunks"
+                + ", items in " + engine.getItemLights().getShards().getShardCount() + " shards"
+                + ", projectiles in " + engine.getProjectileLights().getShards().getShardCount() + " shards"
+                + ", intrinsic lights in " + engine.getIntrinsicLights().getShards().getShardCount() + " shards"
+                + ", chunk cache " + chunkCache.getHits() + " hits / " + chunkCache.getMisses() + " misses"
+                + (lookups > 0 ? String.format(" (%.1f%%)", 100.0D * chunkCache.getHits() / lookups) : "")));
+        }
+
+        long itemHits = ItemLightCache.getHits();
+        long itemLookups = itemHits + ItemLightCache.getMisses();
+        sender.sendMessage(new TextComponentString(
+            "Item light cache: " + ItemLightCache.size() + " stacks"
+            + ", " + itemHits + " hits / " + ItemLightCache.getMisses() + " misses"
+            + (itemLookups > 0 ? String.format(" (%.1f%%)", 100.0D * itemHits / itemLookups) : "")));
+    }
+
+    /**
+     * List the lights near the sender with their owner and level of detail tier
+     */
+    private void sendLights(ICommandSender sender)
+    {
+        LightEngine engine = LightEngine.forWorld(sender.getEntityWorld());
+        BlockPos center = sender.getPosition();
+
+        int listed = 0;
+        listed += sendLights(sender, "item", engine.getItemLights(), center, listed);
+        listed += sendLights(sender, "projectile", engine.getProjectileLights(), center, listed);
+        listed += sendLights(sender, "living", engine.getLivingLights(), center, listed);
+        listed += sendLights(sender, "intrinsic", engine.getIntrinsicLights(), center, listed);
+        listed += sendLights(sender, "emitter", engine.getEmitterLights(), center, listed);
+
+        if (listed == 0)
+        {
+            sender.sendMessage(new TextComponentString("No moving lights within " + LIST_RADIUS + " blocks"));
+        }
+    }
+
+    private int sendLights(ICommandSender sender, String category, LightTracker tracker, BlockPos center, int alreadyListed)
+    {
+        LightSet lights = tracker.getAppliedLights();
+        int listed = 0;
+
+        for (int i = 0; i < lights.size() && alreadyListed + listed < MAX_LISTED; i++)
+        {
+            long packed = lights.get(i);
+            int x = PackedLight.getX(packed);
+            int y = PackedLight.getY(packed);
+            int z = PackedLight.getZ(packed);
+            if (center.distanceSq(x, y, z) > LIST_RADIUS * LIST_RADIUS)
+            {
+                continue;
+            }
+
+            int owner = lights.getOwner(i);
+            sender.sendMessage(new TextComponentString(
+                x + " " + y + " " + z + ": " + category + " level " + PackedLight.getLevel(packed)
+                + ", owner " + owner + ", " + LightLod.getName(tracker.getTier(owner))));
+            listed++;
+        }
+
+        return listed;
+    }
+
+    @Override
+    public List<String> getTabCompletions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos targetPos)
+    {
+        return args.length == 1 ? getListOfStringsMatchingLastWord(args, "stats", "list") : Collections.<String>emptyList();
+    }
+}
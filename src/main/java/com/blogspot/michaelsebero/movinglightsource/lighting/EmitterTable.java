@@ -0,0 +1,304 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed table from entity id to per-emitter state, kept in primitive arrays
+ * Every slot is stamped with the generation of the last pass that saw its entity,
+ * so entities that disappear are not searched for: their slots simply go stale and
+ * are reused by later inserts
+ */
+public class EmitterTable
+{
+    private static final int MIN_CAPACITY = 64;
+
+    // Stamp 0 marks a slot that has never been used
+    private static final int EMPTY = 0;
+
+    private int[] ids;
+    private int[] stamps;
+    private long[] lights;
+    private long[] signatures;
+    private byte[] tiers;
+    private long[] restSince;
+    private double[] offeredX;
+    private double[] offeredY;
+    private double[] offeredZ;
+    private long[] offeredAt;
+    private int occupied;
+    private int generation = 1;
+
+    public EmitterTable()
+    {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Start a new pass, anything not touched during it goes stale
+     */
+    public void nextGeneration()
+    {
+        if (++generation == Integer.MAX_VALUE)
+        {
+            clear();
+        }
+    }
+
+    public void clear()
+    {
+        Arrays.fill(stamps, EMPTY);
+        occupied = 0;
+        generation = 1;
+    }
+
+    /**
+     * Find or create the slot for an entity and stamp it as seen this pass
+     * @return slot index, valid until the next call to touch()
+     */
+    public int touch(int id)
+    {
+        if ((occupied + 1) * 4 > ids.length * 3)
+        {
+            rehash();
+        }
+
+        int mask = ids.length - 1;
+        int index = mix(id) & mask;
+        int reusable = -1;
+
+        while (stamps[index] != EMPTY)
+        {
+            if (ids[index] == id)
+            {
+                if (isStale(index))
+                {
+                    lights[index] = PackedLight.NONE;
+                    signatures[index] = 0L;
+                    tiers[index] = 0;
+                    restSince[index] = 0L;
+                    offeredAt[index] = 0L;
+                }
+                stamps[index] = generation;
+                return index;
+            }
+            if (reusable < 0 && isStale(index))
+            {
+                reusable = index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        if (reusable >= 0)
+        {
+            index = reusable;
+        }
+        else
+        {
+            occupied++;
+        }
+
+        ids[index] = id;
+        stamps[index] = generation;
+        lights[index] = PackedLight.NONE;
+        signatures[index] = 0L;
+        tiers[index] = 0;
+        restSince[index] = 0L;
+        offeredAt[index] = 0L;
+        return index;
+    }
+
+    /**
+     * Find the slot of an entity that was seen this pass or the one before
+     * @return slot index or -1
+     */
+    public int find(int id)
+    {
+        int mask = ids.length - 1;
+        int index = mix(id) & mask;
+
+        while (stamps[index] != EMPTY)
+        {
+            if (ids[index] == id)
+            {
+                return isStale(index) ? -1 : index;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    public long getLight(int slot)
+    {
+        return lights[slot];
+    }
+
+    public void setLight(int slot, long packed)
+    {
+        lights[slot] = packed;
+    }
+
+    /**
+     * Membership signature of the cluster this slot stands for
+     */
+    public long getSignature(int slot)
+    {
+        return signatures[slot];
+    }
+
+    public void setSignature(int slot, long signature)
+    {
+        signatures[slot] = signature;
+    }
+
+    /**
+     * Level of detail tier the slot's light was last resolved with, see LightLod
+     */
+    public int getTier(int slot)
+    {
+        return tiers[slot];
+    }
+
+    public void setTier(int slot, int tier)
+    {
+        tiers[slot] = (byte) tier;
+    }
+
+    /**
+     * Whether the slot was touched during the current pass
+     */
+    public boolean isCurrent(int slot)
+    {
+        return stamps[slot] == generation;
+    }
+
+    /**
+     * World time the slot's emitter came to rest at, 0 while it is moving
+     */
+    public long getRestSince(int slot)
+    {
+        return restSince[slot];
+    }
+
+    public void setRestSince(int slot, long time)
+    {
+        restSince[slot] = time;
+    }
+
+    /**
+     * World time the slot's entity was last offered at, 0 if it hasn't been
+     */
+    public long getOfferedAt(int slot)
+    {
+        return offeredAt[slot];
+    }
+
+    public double getOfferedX(int slot)
+    {
+        return offeredX[slot];
+    }
+
+    public double getOfferedY(int slot)
+    {
+        return offeredY[slot];
+    }
+
+    public double getOfferedZ(int slot)
+    {
+        return offeredZ[slot];
+    }
+
+    /**
+     * Remember where the slot's entity was offered, to tell how far it moves between passes
+     */
+    public void setOffered(int slot, double x, double y, double z, long time)
+    {
+        offeredX[slot] = x;
+        offeredY[slot] = y;
+        offeredZ[slot] = z;
+        offeredAt[slot] = time;
+    }
+
+    private boolean isStale(int index)
+    {
+        return stamps[index] < generation - 1;
+    }
+
+    private void rehash()
+    {
+        int[] oldIds = ids;
+        int[] oldStamps = stamps;
+        long[] oldLights = lights;
+        long[] oldSignatures = signatures;
+        byte[] oldTiers = tiers;
+        long[] oldRestSince = restSince;
+        double[] oldOfferedX = offeredX;
+        double[] oldOfferedY = offeredY;
+        double[] oldOfferedZ = offeredZ;
+        long[] oldOfferedAt = offeredAt;
+
+        int live = 0;
+        for (int i = 0; i < oldIds.length; i++)
+        {
+            if (oldStamps[i] != EMPTY && !isStale(i))
+            {
+                live++;
+            }
+        }
+
+        int capacity = MIN_CAPACITY;
+        while (capacity < live * 4)
+        {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++)
+        {
+            if (oldStamps[i] == EMPTY || oldStamps[i] < generation - 1)
+            {
+                continue;
+            }
+
+            int index = mix(oldIds[i]) & mask;
+            while (stamps[index] != EMPTY)
+            {
+                index = (index + 1) & mask;
+            }
+            ids[index] = oldIds[i];
+            stamps[index] = oldStamps[i];
+            lights[index] = oldLights[i];
+            signatures[index] = oldSignatures[i];
+            tiers[index] = oldTiers[i];
+            restSince[index] = oldRestSince[i];
+            offeredX[index] = oldOfferedX[i];
+            offeredY[index] = oldOfferedY[i];
+            offeredZ[index] = oldOfferedZ[i];
+            offeredAt[index] = oldOfferedAt[i];
+            occupied++;
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        ids = new int[capacity];
+        stamps = new int[capacity];
+        lights = new long[capacity];
+        signatures = new long[capacity];
+        tiers = new byte[capacity];
+        restSince = new long[capacity];
+        offeredX = new double[capacity];
+        offeredY = new double[capacity];
+        offeredZ = new double[capacity];
+        offeredAt = new long[capacity];
+        occupied = 0;
+    }
+
+    private static int mix(int id)
+    {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
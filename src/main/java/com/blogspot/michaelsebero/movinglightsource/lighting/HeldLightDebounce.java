@@ -0,0 +1,97 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+
+/**
+ * Holds back changes to the light of held items, so scrolling the hotbar past a torch or
+ * swapping offhand items doesn't place, re-level and remove a light tick by tick
+ * A light turns on once its item has been held for a while and off once it has been gone
+ * for a while; level changes in between are merged into one
+ */
+public class HeldLightDebounce
+{
+    private static final int LEVEL_BITS = 4;
+    private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1L;
+
+    // Per entity id: the level shown, the level wanted and the tick the two started to differ
+    private final Int2LongOpenHashMap states = new Int2LongOpenHashMap();
+
+    /**
+     * @param lightLevel the level the entity's held items give now
+     * @return the level its light should have
+     */
+    public int getLightLevel(int id, int lightLevel, long now)
+    {
+        long state = states.get(id);
+        int shown = state == 0L ? 0 : getShown(state);
+        if (lightLevel == shown)
+        {
+            if (shown == 0)
+            {
+                states.remove(id);
+            }
+            else if (getWanted(state) != shown)
+            {
+                states.put(id, pack(shown, shown, now));
+            }
+            return shown;
+        }
+
+        // The tick the wanted level first differed from the shown one
+        long since = state != 0L && getWanted(state) != shown ? getSince(state) : now;
+        int delay = lightLevel == 0 ? MainMod.heldLightOffDelayTicks : MainMod.heldLightOnDelayTicks;
+
+        if (now - since >= delay)
+        {
+            shown = lightLevel;
+            since = now;
+        }
+
+        if (shown == 0 && lightLevel == 0)
+        {
+            states.remove(id);
+        }
+        else
+        {
+            states.put(id, pack(shown, lightLevel, since));
+        }
+        return shown;
+    }
+
+    /**
+     * Whether the entity wants a level its light doesn't show yet, e.g. a torch equipped a tick ago
+     * Such entities have to stay candidates even while their light is off
+     */
+    public boolean isPending(int id)
+    {
+        long state = states.get(id);
+        return state != 0L && getWanted(state) != getShown(state);
+    }
+
+    public void remove(int id)
+    {
+        states.remove(id);
+    }
+
+    private static long pack(int shown, int wanted, long since)
+    {
+        return since << (2 * LEVEL_BITS) | (long) wanted << LEVEL_BITS | shown;
+    }
+
+    private static int getShown(long state)
+    {
+        return (int) (state & LEVEL_MASK);
+    }
+
+    private static int getWanted(long state)
+    {
+        return (int) (state >>> LEVEL_BITS & LEVEL_MASK);
+    }
+
+    private static long getSince(long state)
+    {
+        return state >>> (2 * LEVEL_BITS);
+    }
+}
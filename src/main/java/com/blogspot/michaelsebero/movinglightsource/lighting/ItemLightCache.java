@@ -0,0 +1,98 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+
+import it.unimi.dsi.fastutil.longs.Long2IntLinkedOpenHashMap;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Bounded least recently used cache of the light level of item stacks
+ * Keyed by item, metadata and NBT hash, so a stack whose fluid or NBT changes is resolved
+ * again while identical stacks share one resolution; resolving can read the stack's fluid
+ * capability, which is too slow to do for every stack that is looked at
+ * Shared by the server and client threads
+ */
+public final class ItemLightCache
+{
+    private static final int CAPACITY = 1024;
+
+    private static final Long2IntLinkedOpenHashMap LEVELS = new Long2IntLinkedOpenHashMap(CAPACITY);
+    private static long hits = 0L;
+    private static long misses = 0L;
+
+    static
+    {
+        LEVELS.defaultReturnValue(-1);
+    }
+
+    private ItemLightCache()
+    {
+        // Static helpers only
+    }
+
+    public static int getLightLevel(ItemStack stack)
+    {
+        long key = getKey(stack);
+        synchronized (ItemLightCache.class)
+        {
+            int lightLevel = LEVELS.getAndMoveToLast(key);
+            if (lightLevel >= 0)
+            {
+                hits++;
+                return lightLevel;
+            }
+            misses++;
+        }
+
+        // Resolving can run other mods' fluid capabilities, so not while holding the lock
+        // the client and server threads share; a stack resolved on both at once is put once
+        int lightLevel = BlockMovingLightSource.resolveItemLightLevel(stack);
+        synchronized (ItemLightCache.class)
+        {
+            if (!LEVELS.containsKey(key))
+            {
+                if (LEVELS.size() >= CAPACITY)
+                {
+                    LEVELS.removeFirstInt();
+                }
+                LEVELS.put(key, lightLevel);
+            }
+        }
+        return lightLevel;
+    }
+
+    public static synchronized void clear()
+    {
+        LEVELS.clear();
+    }
+
+    public static synchronized int size()
+    {
+        return LEVELS.size();
+    }
+
+    public static synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public static synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Item id, metadata and NBT hash packed into 16, 16 and 32 bits
+     * Items without subtypes use their metadata for damage, every point of which would be a new key
+     */
+    private static long getKey(ItemStack stack)
+    {
+        Item item = stack.getItem();
+        long nbtHash = stack.hasTagCompound() ? stack.getTagCompound().hashCode() : 0;
+        int metadata = item.getHasSubtypes() ? stack.getMetadata() : 0;
+        return (long) (Item.getIdFromItem(item) & 0xFFFF) << 48
+                | (long) (metadata & 0xFFFF) << 32
+                | nbtHash & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,44 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.entity.Entity;
+
+/**
+ * Entities of one world that may be giving off light, e.g. living entities that are burning
+ * or have something equipped that glows
+ * Entities are added by events and dropped by their pass once they stop giving off light,
+ * so the pass never looks at the other entities
+ */
+public class LightCandidates<T extends Entity>
+{
+    private final Int2ObjectOpenHashMap<T> entities = new Int2ObjectOpenHashMap<>();
+
+    public void add(T entity)
+    {
+        entities.put(entity.getEntityId(), entity);
+    }
+
+    public void remove(int id)
+    {
+        entities.remove(id);
+    }
+
+    public int size()
+    {
+        return entities.size();
+    }
+
+    public void clear()
+    {
+        entities.clear();
+    }
+
+    /**
+     * Iterate the candidates; remove() drops the current one
+     */
+    public ObjectIterator<T> iterator()
+    {
+        return entities.values().iterator();
+    }
+}
@@ -0,0 +1,181 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Tick-scoped chunk lookup for the light engine
+ * A light move reads the same chunk several times, so chunks are looked up once per
+ * tick and block states are read straight from their sections
+ * Only chunks that are already loaded are ever returned; the engine must never load or
+ * generate a chunk just to place a light, so everything else reads as not loaded
+ * Cleared at the start and end of every world tick, so it never holds a chunk that
+ * has been unloaded since
+ */
+public class LightChunkCache
+{
+    private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final World world;
+    private final Long2ObjectOpenHashMap<Chunk> chunks = new Long2ObjectOpenHashMap<>();
+    private final LongOpenHashSet unloadedChunks = new LongOpenHashSet();
+    private final BlockPos.MutableBlockPos probe = new BlockPos.MutableBlockPos();
+
+    private long hits = 0L;
+    private long misses = 0L;
+
+    public LightChunkCache(World parWorld)
+    {
+        world = parWorld;
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * @return the chunk, or null if it isn't loaded
+     */
+    @Nullable
+    public Chunk getChunk(int chunkX, int chunkZ)
+    {
+        long key = ChunkPos.asLong(chunkX, chunkZ);
+        Chunk chunk = chunks.get(key);
+
+        if (chunk != null)
+        {
+            hits++;
+            return chunk;
+        }
+
+        if (unloadedChunks.contains(key))
+        {
+            hits++;
+            return null;
+        }
+
+        // Never getChunkFromChunkCoords here, that would load or generate the chunk
+        misses++;
+        chunk = world.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
+        if (chunk == null)
+        {
+            unloadedChunks.add(key);
+        }
+        else
+        {
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    public boolean isLoaded(int x, int z)
+    {
+        return getChunk(x >> 4, z >> 4) != null;
+    }
+
+    /**
+     * @return the block state, or null if its chunk isn't loaded
+     */
+    @Nullable
+    public IBlockState getBlockState(int x, int y, int z)
+    {
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null)
+        {
+            return null;
+        }
+
+        if (y < 0 || y > 255)
+        {
+            return AIR;
+        }
+
+        ExtendedBlockStorage storage = chunk.getBlockStorageArray()[y >> 4];
+        return storage == Chunk.NULL_BLOCK_STORAGE ? AIR : storage.get(x & 15, y & 15, z & 15);
+    }
+
+    @Nullable
+    public IBlockState getBlockState(BlockPos pos)
+    {
+        return getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Stored sky or block light at a position, 0 if its chunk isn't loaded
+     * Sky light is the raw value, without the world's time of day or weather
+     */
+    public int getLight(EnumSkyBlock type, int x, int y, int z)
+    {
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null || y < 0 || y > 255)
+        {
+            return 0;
+        }
+
+        return chunk.getLightFor(type, probe.setPos(x, y, z));
+    }
+
+    @Nullable
+    public TileEntity getTileEntity(BlockPos pos)
+    {
+        Chunk chunk = getChunk(pos.getX() >> 4, pos.getZ() >> 4);
+        return chunk == null ? null : chunk.getTileEntity(pos, Chunk.EnumCreateEntityType.CHECK);
+    }
+
+    /**
+     * Writes still go through the world for relighting and client updates,
+     * the cached chunk stays valid afterwards
+     * Lights are stripped when a chunk is saved, so a light change alone doesn't make
+     * the chunk need saving
+     * @return false if the chunk isn't loaded and nothing was written
+     */
+    public boolean setBlockState(BlockPos pos, IBlockState state)
+    {
+        Chunk chunk = getChunk(pos.getX() >> 4, pos.getZ() >> 4);
+        if (chunk == null)
+        {
+            return false;
+        }
+
+        boolean wasModified = chunk.needsSaving(false);
+        boolean changed = world.setBlockState(pos, state);
+        if (!wasModified)
+        {
+            chunk.setModified(false);
+        }
+        return changed;
+    }
+
+    public boolean setBlockToAir(BlockPos pos)
+    {
+        return setBlockState(pos, AIR);
+    }
+
+    public void clear()
+    {
+        chunks.clear();
+        unloadedChunks.clear();
+    }
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+}
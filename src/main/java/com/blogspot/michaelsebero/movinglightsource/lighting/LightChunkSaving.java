@@ -0,0 +1,167 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.registries.BlockRegistry;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Keeps moving lights out of saved chunks
+ * Lights only make sense while their owner is around, so a saved chunk gets air and no
+ * tile entity where they were, and is marked for relighting so their glow goes with them
+ */
+public final class LightChunkSaving
+{
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+    // Block ids of the light blocks in the running game, rebuilt when ids are assigned or remapped
+    private static volatile IntSet lightIds = null;
+
+    private LightChunkSaving()
+    {
+        // Static helpers only
+    }
+
+    /**
+     * Replace the moving lights in a chunk's save data with air, using the running game's block ids
+     * @param level the "Level" compound of the chunk as written by AnvilChunkLoader
+     * @return the number of lights removed
+     */
+    public static int stripLights(NBTTagCompound level)
+    {
+        IntSet ids = lightIds;
+        if (ids == null)
+        {
+            ids = updateLightIds();
+        }
+
+        return stripLights(level, ids);
+    }
+
+    /**
+     * Look up the light blocks' ids, once registration is done and again whenever a world's
+     * saved ids are mapped onto the game's
+     */
+    public static IntSet updateLightIds()
+    {
+        IntOpenHashSet ids = new IntOpenHashSet();
+        for (Block block : BlockRegistry.RegistrationHandler.SET_BLOCKS)
+        {
+            ids.add(Block.getIdFromBlock(block));
+        }
+
+        lightIds = ids;
+        return ids;
+    }
+
+    /**
+     * Replace the blocks with the given ids in a chunk's save data with air and drop their tile entities
+     * @return the number of blocks removed
+     */
+    public static int stripLights(NBTTagCompound level, IntSet lightIds)
+    {
+        // Low id bytes of the light blocks, so sections without any can be passed over in one scan
+        boolean[] lightLowBytes = new boolean[256];
+        for (int id : lightIds)
+        {
+            lightLowBytes[id & 255] = true;
+        }
+
+        NBTTagList sections = level.getTagList("Sections", Constants.NBT.TAG_COMPOUND);
+        IntOpenHashSet strippedPositions = new IntOpenHashSet();
+
+        for (int i = 0; i < sections.tagCount(); i++)
+        {
+            NBTTagCompound section = sections.getCompoundTagAt(i);
+            int sectionY = section.getByte("Y");
+            byte[] blocks = section.getByteArray("Blocks");
+            byte[] data = section.getByteArray("Data");
+            byte[] add = section.hasKey("Add", Constants.NBT.TAG_BYTE_ARRAY) ? section.getByteArray("Add") : null;
+
+            if (blocks.length != SECTION_VOLUME || !containsAny(blocks, lightLowBytes))
+            {
+                continue;
+            }
+
+            for (int index = 0; index < SECTION_VOLUME; index++)
+            {
+                int id = (blocks[index] & 255) | (add == null ? 0 : getNibble(add, index) << 8);
+                if (!lightIds.contains(id))
+                {
+                    continue;
+                }
+
+                blocks[index] = 0;
+                if (add != null)
+                {
+                    setNibble(add, index, 0);
+                }
+                if (data.length == SECTION_VOLUME / 2)
+                {
+                    setNibble(data, index, 0);
+                }
+
+                // Index is y << 8 | z << 4 | x within the section
+                strippedPositions.add(((sectionY << 4 | index >> 8) << 8) | (index & 255));
+            }
+        }
+
+        if (strippedPositions.isEmpty())
+        {
+            return 0;
+        }
+
+        NBTTagList tileEntities = level.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND);
+        for (int i = tileEntities.tagCount() - 1; i >= 0; i--)
+        {
+            NBTTagCompound tileEntity = tileEntities.getCompoundTagAt(i);
+            int y = tileEntity.getInteger("y");
+            int localKey = (y << 8) | ((tileEntity.getInteger("z") & 15) << 4) | (tileEntity.getInteger("x") & 15);
+            if (y >= 0 && y < 256 && strippedPositions.contains(localKey))
+            {
+                tileEntities.removeTag(i);
+            }
+        }
+
+        // Their block light is still baked into the section, let the chunk relight once it's loaded
+        level.setBoolean("LightPopulated", false);
+
+        return strippedPositions.size();
+    }
+
+    private static boolean containsAny(byte[] blocks, boolean[] lowBytes)
+    {
+        for (byte block : blocks)
+        {
+            if (lowBytes[block & 255])
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int getNibble(byte[] nibbles, int index)
+    {
+        int value = nibbles[index >> 1];
+        return (index & 1) == 0 ? value & 15 : (value >> 4) & 15;
+    }
+
+    private static void setNibble(byte[] nibbles, int index, int value)
+    {
+        int i = index >> 1;
+        if ((index & 1) == 0)
+        {
+            nibbles[i] = (byte) ((nibbles[i] & 0xF0) | (value & 15));
+        }
+        else
+        {
+            nibbles[i] = (byte) ((nibbles[i] & 0x0F) | ((value & 15) << 4));
+        }
+    }
+}
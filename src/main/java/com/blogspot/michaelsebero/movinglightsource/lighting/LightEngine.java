@@ -0,0 +1,302 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.world.World;
+
+/**
+ * Per-world light state
+ * Lights are reconciled per world so one dimension's pass never touches another's lights
+ */
+public class LightEngine
+{
+    private static final Map<Integer, LightEngine> ENGINES = new HashMap<>();
+
+    // Bumped when the config changes, which in singleplayer happens on the client thread;
+    // each world catches up on its own tick
+    private static volatile int configGeneration = 0;
+
+    private final World world;
+    private final LightChunkCache chunkCache;
+    private final LightOwnership ownership;
+    private final LightTracker itemLights;
+    private final LightTracker projectileLights;
+    private final LightTracker livingLights;
+    private final LightTracker intrinsicLights;
+    private final LightTracker emitterLights;
+    private final LightCandidates<EntityLivingBase> livingCandidates = new LightCandidates<>();
+    private final LightCandidates<Entity> emitterCandidates = new LightCandidates<>();
+    private final LightPotions potions = new LightPotions(this);
+    private final HeldLightDebounce heldLightDebounce = new HeldLightDebounce();
+    private int appliedConfigGeneration = configGeneration;
+
+    private LightEngine(World parWorld)
+    {
+        world = parWorld;
+        chunkCache = new LightChunkCache(parWorld);
+        ownership = new LightOwnership(chunkCache);
+        itemLights = new LightTracker(ownership, chunkCache);
+        projectileLights = new LightTracker(ownership, chunkCache);
+        livingLights = new LightTracker(ownership, chunkCache);
+        intrinsicLights = new LightTracker(ownership, chunkCache);
+        emitterLights = new LightTracker(ownership, chunkCache);
+    }
+
+    /**
+     * Get the engine for a server world, creating it on first use
+     */
+    public static LightEngine forWorld(World parWorld)
+    {
+        int dimension = parWorld.provider.getDimension();
+        LightEngine engine = ENGINES.get(dimension);
+
+        if (engine == null || engine.world != parWorld)
+        {
+            engine = new LightEngine(parWorld);
+            ENGINES.put(dimension, engine);
+        }
+
+        return engine;
+    }
+
+    /**
+     * Get the engine of a world if it has one, without creating it
+     */
+    @Nullable
+    public static LightEngine getIfPresent(World parWorld)
+    {
+        LightEngine engine = ENGINES.get(parWorld.provider.getDimension());
+        return engine != null && engine.world == parWorld ? engine : null;
+    }
+
+    /**
+     * Forget the engine of a world that is unloading
+     */
+    public static void unload(World parWorld)
+    {
+        LightEngine engine = ENGINES.get(parWorld.provider.getDimension());
+        if (engine != null && engine.world == parWorld)
+        {
+            ENGINES.remove(parWorld.provider.getDimension());
+        }
+    }
+
+    /**
+     * Have every world drop its tracked lights on its next tick, e.g. after a config change
+     * Safe to call from any thread, nothing is touched here
+     */
+    public static void onConfigChanged()
+    {
+        configGeneration++;
+    }
+
+    /**
+     * Drop this world's tracked lights if the config changed since it last caught up
+     * Only call from the server thread
+     * @return whether the lights were dropped, so the next pass re-places what is still wanted
+     */
+    public boolean syncConfig()
+    {
+        int generation = configGeneration;
+        if (appliedConfigGeneration == generation)
+        {
+            return false;
+        }
+
+        appliedConfigGeneration = generation;
+        removeAllLights();
+        return true;
+    }
+
+    /**
+     * Remove every light this world's trackers placed
+     */
+    public void removeAllLights()
+    {
+        itemLights.removeAll();
+        projectileLights.removeAll();
+        livingLights.removeAll();
+        intrinsicLights.removeAll();
+        emitterLights.removeAll();
+    }
+
+    /**
+     * Remove every light in every world in one quiet batch per chunk and forget the engines,
+     * before the worlds are saved for the last time
+     */
+    public static void shutdown()
+    {
+        int removed = 0;
+        for (LightEngine engine : ENGINES.values())
+        {
+            engine.chunkCache.clear();
+            removed += engine.ownership.removeAll();
+        }
+        ENGINES.clear();
+        System.out.println("[MovingLightSource] Removed " + removed + " moving lights before shutdown");
+    }
+
+    /**
+     * Light placements and block changes skipped because their chunk wasn't loaded
+     */
+    public long getSkippedPlacements()
+    {
+        return ownership.getSkipped()
+                + itemLights.getSkippedPlacements()
+                + projectileLights.getSkippedPlacements()
+                + livingLights.getSkippedPlacements()
+                + intrinsicLights.getSkippedPlacements()
+                + emitterLights.getSkippedPlacements();
+    }
+
+    /**
+     * Emitters that went without a light on their last pass because it was already bright enough
+     */
+    public int getSuppressedLights()
+    {
+        return itemLights.getSuppressedCount()
+                + projectileLights.getSuppressedCount()
+                + livingLights.getSuppressedCount()
+                + intrinsicLights.getSuppressedCount()
+                + emitterLights.getSuppressedCount();
+    }
+
+    public int getRestingLights()
+    {
+        return itemLights.getRestingCount()
+                + projectileLights.getRestingCount()
+                + livingLights.getRestingCount()
+                + intrinsicLights.getRestingCount()
+                + emitterLights.getRestingCount();
+    }
+
+    /**
+     * Release an owner's light right away, e.g. when the entity dies or is picked up
+     * A single lookup in the ownership index; if the owner turns out to still want its
+     * light, e.g. because the event was cancelled, its tracker claims it again
+     */
+    public void releaseOwner(int id)
+    {
+        if (!ownership.isOwner(id))
+        {
+            return;
+        }
+
+        ownership.release(id);
+        itemLights.onOwnerReleased(id);
+        projectileLights.onOwnerReleased(id);
+        livingLights.onOwnerReleased(id);
+        intrinsicLights.onOwnerReleased(id);
+        emitterLights.onOwnerReleased(id);
+    }
+
+    /**
+     * Entities whose light is pushed, through the API or by a potion effect, are looked at again when it changes
+     * Living entities and items already have a pass, any other entity joins the emitter pass
+     */
+    public void onLightChanged(Entity entity)
+    {
+        int id = entity.getEntityId();
+        if (entity instanceof EntityLivingBase)
+        {
+            livingLights.wake(id);
+            intrinsicLights.wake(id);
+            livingCandidates.add((EntityLivingBase) entity);
+        }
+        else if (entity instanceof EntityItem)
+        {
+            itemLights.wake(id);
+        }
+        else
+        {
+            emitterLights.wake(id);
+            emitterCandidates.add(entity);
+        }
+    }
+
+    /**
+     * Forget an entity that left the world
+     */
+    public void removeEntity(int id)
+    {
+        livingCandidates.remove(id);
+        emitterCandidates.remove(id);
+        potions.removeEntity(id);
+        heldLightDebounce.remove(id);
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    public static Collection<LightEngine> getEngines()
+    {
+        return ENGINES.values();
+    }
+
+    public LightChunkCache getChunkCache()
+    {
+        return chunkCache;
+    }
+
+    public LightOwnership getOwnership()
+    {
+        return ownership;
+    }
+
+    public LightTracker getItemLights()
+    {
+        return itemLights;
+    }
+
+    public LightTracker getProjectileLights()
+    {
+        return projectileLights;
+    }
+
+    public LightTracker getLivingLights()
+    {
+        return livingLights;
+    }
+
+    /**
+     * Lights of living entities that glow by themselves, such as blazes, looked at less often
+     */
+    public LightTracker getIntrinsicLights()
+    {
+        return intrinsicLights;
+    }
+
+    public LightTracker getEmitterLights()
+    {
+        return emitterLights;
+    }
+
+    public HeldLightDebounce getHeldLightDebounce()
+    {
+        return heldLightDebounce;
+    }
+
+    public LightPotions getPotions()
+    {
+        return potions;
+    }
+
+    public LightCandidates<EntityLivingBase> getLivingCandidates()
+    {
+        return livingCandidates;
+    }
+
+    public LightCandidates<Entity> getEmitterCandidates()
+    {
+        return emitterCandidates;
+    }
+}
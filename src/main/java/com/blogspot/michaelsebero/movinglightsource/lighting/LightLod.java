@@ -0,0 +1,81 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+
+import net.minecraft.block.Block;
+import net.minecraft.init.Blocks;
+
+/**
+ * Level of detail policy for moving lights
+ * Lights of fast owners and of owners far from every player follow them in bigger steps,
+ * and far lights can be dimmed, so they cost fewer block changes and relights
+ */
+public final class LightLod
+{
+    public static final int NEAR = 0;
+    public static final int FAST = 1;
+    public static final int FAR = 2;
+
+    private static final String[] NAMES = {"near", "fast", "far"};
+
+    private LightLod()
+    {
+        // Static helpers only
+    }
+
+    /**
+     * @param speed fastest member speed in blocks per tick
+     * @param playerDistanceSq squared distance to the nearest player, or infinity if there is none
+     */
+    public static int getTier(double speed, double playerDistanceSq)
+    {
+        if (MainMod.lodFarDistance > 0.0D && playerDistanceSq > MainMod.lodFarDistance * MainMod.lodFarDistance)
+        {
+            return FAR;
+        }
+
+        if (MainMod.lodFastSpeed > 0.0D && speed > MainMod.lodFastSpeed)
+        {
+            return FAST;
+        }
+
+        return NEAR;
+    }
+
+    /**
+     * How far, in blocks, an owner may get from its light before the light moves
+     */
+    public static int getKeepDistance(int tier, int keepDistance)
+    {
+        switch (tier)
+        {
+            case FAST:
+                return Math.max(keepDistance, MainMod.lodFastKeepDistance);
+            case FAR:
+                return Math.max(keepDistance, MainMod.lodFarKeepDistance);
+            default:
+                return keepDistance;
+        }
+    }
+
+    /**
+     * Light level for a tier, rounded to a level there is a light block for
+     * @return the level, or 0 for no light
+     */
+    public static int getLightLevel(int tier, int lightLevel)
+    {
+        if (tier != FAR || MainMod.lodFarLevelDrop == 0)
+        {
+            return lightLevel;
+        }
+
+        Block lightBlock = BlockMovingLightSource.getLightBlockForLevel(lightLevel - MainMod.lodFarLevelDrop);
+        return lightBlock == Blocks.AIR ? 0 : lightBlock.getLightValue(lightBlock.getDefaultState());
+    }
+
+    public static String getName(int tier)
+    {
+        return NAMES[tier];
+    }
+}
@@ -0,0 +1,104 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.Arrays;
+
+/**
+ * Compact set of the owners sharing one light position, with the level each one wants
+ * Almost always holds one or two owners, so it is a pair of small parallel arrays
+ */
+public class LightOwners
+{
+    private int[] owners = new int[2];
+    private byte[] levels = new byte[2];
+    private int size = 0;
+
+    /**
+     * Add an owner or update its level
+     */
+    public void put(int owner, int level)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (owners[i] == owner)
+            {
+                levels[i] = (byte) level;
+                return;
+            }
+        }
+
+        if (size == owners.length)
+        {
+            owners = Arrays.copyOf(owners, size * 2);
+            levels = Arrays.copyOf(levels, size * 2);
+        }
+
+        owners[size] = owner;
+        levels[size] = (byte) level;
+        size++;
+    }
+
+    /**
+     * @return true if the owner was in the set
+     */
+    public boolean remove(int owner)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (owners[i] == owner)
+            {
+                size--;
+                owners[i] = owners[size];
+                levels[i] = levels[size];
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public boolean contains(int owner)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (owners[i] == owner)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Level of the light block, the brightest of the owners
+     */
+    public int getMaxLevel()
+    {
+        int max = 0;
+        for (int i = 0; i < size; i++)
+        {
+            max = Math.max(max, levels[i]);
+        }
+        return max;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getOwner(int index)
+    {
+        return owners[index];
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+}
@@ -0,0 +1,257 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.ArrayDeque;
+
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+import com.blogspot.michaelsebero.movinglightsource.tileentities.TileEntityMovingLightSource;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Reference-counted index of every moving light a world's trackers have placed
+ * Each light position keeps the set of owners that want it with their levels; the block
+ * shows the brightest of them and is only removed when the last owner releases it
+ * Each owner holds at most one position, so releasing an owner is a single lookup
+ */
+public class LightOwnership
+{
+    private final LightChunkCache chunkCache;
+    private final Long2ObjectOpenHashMap<LightOwners> positions = new Long2ObjectOpenHashMap<>();
+    private final Int2LongOpenHashMap ownerPositions = new Int2LongOpenHashMap();
+
+    // Emptied owner sets are kept for reuse so lights moving around don't allocate
+    private final ArrayDeque<LightOwners> spareOwners = new ArrayDeque<>();
+
+    // Block changes dropped because the position's chunk wasn't loaded
+    private long skipped = 0L;
+
+    public LightOwnership(LightChunkCache parChunkCache)
+    {
+        chunkCache = parChunkCache;
+        ownerPositions.defaultReturnValue(PackedLight.NONE);
+    }
+
+    /**
+     * Claim a light for an owner at the position and level of a packed light
+     * An owner that already holds a different position releases it first
+     */
+    public void acquire(int owner, long packed)
+    {
+        long key = PackedLight.positionKey(packed);
+        int level = PackedLight.getLevel(packed);
+
+        long previousKey = ownerPositions.get(owner);
+        if (previousKey != PackedLight.NONE && previousKey != key)
+        {
+            release(owner, previousKey);
+        }
+
+        LightOwners owners = positions.get(key);
+        int levelBefore = 0;
+        if (owners == null)
+        {
+            owners = spareOwners.isEmpty() ? new LightOwners() : spareOwners.pop();
+            positions.put(key, owners);
+        }
+        else
+        {
+            levelBefore = owners.getMaxLevel();
+        }
+
+        owners.put(owner, level);
+        ownerPositions.put(owner, key);
+
+        apply(key, levelBefore, owners.getMaxLevel());
+    }
+
+    /**
+     * Release whatever light an owner holds
+     */
+    public void release(int owner)
+    {
+        long key = ownerPositions.get(owner);
+        if (key != PackedLight.NONE)
+        {
+            release(owner, key);
+        }
+    }
+
+    /**
+     * Release an owner's claim on one position, ignored if it has since moved elsewhere
+     */
+    public void release(int owner, long positionKey)
+    {
+        if (ownerPositions.get(owner) != positionKey)
+        {
+            return;
+        }
+        ownerPositions.remove(owner);
+
+        LightOwners owners = positions.get(positionKey);
+        if (owners == null)
+        {
+            return;
+        }
+
+        int levelBefore = owners.getMaxLevel();
+        owners.remove(owner);
+
+        if (owners.isEmpty())
+        {
+            positions.remove(positionKey);
+            spareOwners.push(owners);
+            apply(positionKey, levelBefore, 0);
+        }
+        else
+        {
+            apply(positionKey, levelBefore, owners.getMaxLevel());
+        }
+    }
+
+    /**
+     * Remove every light in the index at once, e.g. when the server stops
+     * Lights are grouped by chunk and written straight into its block storage, without
+     * relighting or block updates; the chunks relight when they next load
+     * @return the number of lights removed
+     */
+    public int removeAll()
+    {
+        Long2ObjectOpenHashMap<LongArrayList> chunkLights = new Long2ObjectOpenHashMap<>();
+        LongIterator keys = positions.keySet().iterator();
+        while (keys.hasNext())
+        {
+            long key = keys.nextLong();
+            long packed = PackedLight.fromPositionKey(key, 0);
+            long chunkKey = ChunkPos.asLong(PackedLight.getX(packed) >> 4, PackedLight.getZ(packed) >> 4);
+            LongArrayList lights = chunkLights.get(chunkKey);
+            if (lights == null)
+            {
+                lights = new LongArrayList();
+                chunkLights.put(chunkKey, lights);
+            }
+            lights.add(packed);
+        }
+
+        int removed = 0;
+        IBlockState air = Blocks.AIR.getDefaultState();
+        for (Long2ObjectMap.Entry<LongArrayList> entry : chunkLights.long2ObjectEntrySet())
+        {
+            LongArrayList lights = entry.getValue();
+            long firstLight = lights.getLong(0);
+            Chunk chunk = chunkCache.getChunk(PackedLight.getX(firstLight) >> 4, PackedLight.getZ(firstLight) >> 4);
+            if (chunk == null)
+            {
+                // Saved chunks have their lights stripped already
+                skipped += lights.size();
+                continue;
+            }
+
+            for (int i = 0; i < lights.size(); i++)
+            {
+                long packed = lights.getLong(i);
+                int x = PackedLight.getX(packed);
+                int y = PackedLight.getY(packed);
+                int z = PackedLight.getZ(packed);
+                ExtendedBlockStorage storage = chunk.getBlockStorageArray()[y >> 4];
+                if (storage == Chunk.NULL_BLOCK_STORAGE || !(storage.get(x & 15, y & 15, z & 15).getBlock() instanceof BlockMovingLightSource))
+                {
+                    continue;
+                }
+
+                storage.set(x & 15, y & 15, z & 15, air);
+                chunk.removeTileEntity(new BlockPos(x, y, z));
+                removed++;
+            }
+
+            chunk.setLightPopulated(false);
+            chunk.markDirty();
+        }
+
+        for (LightOwners owners : positions.values())
+        {
+            owners.clear();
+            spareOwners.push(owners);
+        }
+        positions.clear();
+        ownerPositions.clear();
+        return removed;
+    }
+
+    public boolean isOwner(int owner)
+    {
+        return ownerPositions.containsKey(owner);
+    }
+
+    public boolean isOwned(BlockPos pos)
+    {
+        return positions.containsKey(PackedLight.positionKey(PackedLight.pack(pos.getX(), pos.getY(), pos.getZ(), 0)));
+    }
+
+    public int size()
+    {
+        return positions.size();
+    }
+
+    public long getSkipped()
+    {
+        return skipped;
+    }
+
+    /**
+     * Bring the block at a position in line with the brightest owner's level
+     */
+    private void apply(long positionKey, int levelBefore, int levelAfter)
+    {
+        if (levelBefore == levelAfter)
+        {
+            return;
+        }
+
+        long packed = PackedLight.fromPositionKey(positionKey, levelAfter);
+        BlockPos pos = new BlockPos(PackedLight.getX(packed), PackedLight.getY(packed), PackedLight.getZ(packed));
+        IBlockState state = chunkCache.getBlockState(pos);
+        if (state == null)
+        {
+            // Never load a chunk for a light; a light left in an unloaded chunk is unmanaged
+            // once it loads again and its tile entity removes it
+            skipped++;
+            return;
+        }
+
+        Block blockAtLocation = state.getBlock();
+
+        if (levelAfter == 0)
+        {
+            if (blockAtLocation instanceof BlockMovingLightSource)
+            {
+                chunkCache.setBlockToAir(pos);
+            }
+            return;
+        }
+
+        Block lightBlock = BlockMovingLightSource.getLightBlockForLevel(levelAfter);
+        if (blockAtLocation instanceof BlockMovingLightSource ? blockAtLocation != lightBlock : blockAtLocation.isAir(state, chunkCache.getWorld(), pos))
+        {
+            chunkCache.setBlockState(pos, lightBlock.getDefaultState());
+        }
+
+        // Lights in the index are removed through it, so the tile entity doesn't need to search for an owner
+        TileEntity te = chunkCache.getTileEntity(pos);
+        if (te instanceof TileEntityMovingLightSource)
+        {
+            ((TileEntityMovingLightSource) te).setManaged(true);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+
+/**
+ * Finds where a light can go around an owner without allocating
+ * Probes the 3x3x3 neighborhood in a fixed nearest-first order through one mutable
+ * position, reading blocks through the world's tick-scoped chunk cache
+ */
+public class LightPlacement
+{
+    private static final int[] OFFSETS_X;
+    private static final int[] OFFSETS_Y;
+    private static final int[] OFFSETS_Z;
+
+    static
+    {
+        List<int[]> offsets = new ArrayList<>();
+        for (int dx = -1; dx <= 1; dx++)
+        {
+            for (int dy = -1; dy <= 1; dy++)
+            {
+                for (int dz = -1; dz <= 1; dz++)
+                {
+                    offsets.add(new int[] {dx, dy, dz});
+                }
+            }
+        }
+
+        // Nearest first; on ties prefer higher spots, since a light above the owner reads best
+        offsets.sort(Comparator.<int[]>comparingInt(o -> o[0] * o[0] + o[1] * o[1] + o[2] * o[2])
+                .thenComparingInt(o -> -o[1])
+                .thenComparingInt(o -> o[0])
+                .thenComparingInt(o -> o[2]));
+
+        OFFSETS_X = new int[offsets.size()];
+        OFFSETS_Y = new int[offsets.size()];
+        OFFSETS_Z = new int[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++)
+        {
+            OFFSETS_X[i] = offsets.get(i)[0];
+            OFFSETS_Y[i] = offsets.get(i)[1];
+            OFFSETS_Z[i] = offsets.get(i)[2];
+        }
+    }
+
+    private final LightChunkCache chunkCache;
+    private final BlockPos.MutableBlockPos probe = new BlockPos.MutableBlockPos();
+
+    // Searches abandoned because the owner was in a chunk that isn't loaded
+    private long skipped = 0L;
+
+    public LightPlacement(LightChunkCache parChunkCache)
+    {
+        chunkCache = parChunkCache;
+    }
+
+    /**
+     * Find the nearest spot around a block that can hold a light
+     * @return the packed light at that spot or PackedLight.NONE
+     */
+    public long find(int x, int y, int z, int lightLevel)
+    {
+        if (!chunkCache.isLoaded(x, z))
+        {
+            skipped++;
+            return PackedLight.NONE;
+        }
+
+        for (int i = 0; i < OFFSETS_X.length; i++)
+        {
+            int probeX = x + OFFSETS_X[i];
+            int probeY = y + OFFSETS_Y[i];
+            int probeZ = z + OFFSETS_Z[i];
+
+            if (canHoldLight(probeX, probeY, probeZ))
+            {
+                return PackedLight.pack(probeX, probeY, probeZ, lightLevel);
+            }
+        }
+
+        return PackedLight.NONE;
+    }
+
+    /**
+     * Empty spots and existing moving lights can hold a light
+     * Other replaceable blocks such as tall grass, snow and fluids are left alone,
+     * since the light would destroy them, and so is anything in a chunk that isn't loaded
+     */
+    public boolean canHoldLight(int x, int y, int z)
+    {
+        if (y < 0 || y > 255)
+        {
+            return false;
+        }
+
+        IBlockState state = chunkCache.getBlockState(x, y, z);
+        if (state == null)
+        {
+            return false;
+        }
+
+        Block block = state.getBlock();
+        probe.setPos(x, y, z);
+        return block instanceof BlockMovingLightSource || block.isAir(state, chunkCache.getWorld(), probe);
+    }
+
+    /**
+     * How bright a position already is without moving lights
+     * Sky light is dimmed by the world's current time of day and weather, which the world
+     * works out once per tick, so this is two light lookups; block light is ignored where a
+     * moving light stands since it would be counting that light itself
+     */
+    public int getAmbientLight(int x, int y, int z)
+    {
+        World world = chunkCache.getWorld();
+        int skyLight = chunkCache.getLight(EnumSkyBlock.SKY, x, y, z) - world.getSkylightSubtracted();
+        if (isLight(x, y, z))
+        {
+            return skyLight;
+        }
+
+        return Math.max(skyLight, chunkCache.getLight(EnumSkyBlock.BLOCK, x, y, z));
+    }
+
+    public boolean isLight(int x, int y, int z)
+    {
+        IBlockState state = chunkCache.getBlockState(x, y, z);
+        return state != null && state.getBlock() instanceof BlockMovingLightSource;
+    }
+
+    public long getSkipped()
+    {
+        return skipped;
+    }
+}
@@ -0,0 +1,188 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.capabilities.LightSource;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.potion.Potion;
+import net.minecraft.potion.PotionEffect;
+import net.minecraft.world.World;
+
+/**
+ * Light giving potion effects of one world, scheduled by the tick they end on
+ * Effects are recorded when they are added and looked at again only on their end tick, so
+ * nothing scans entities for active effects
+ */
+public class LightPotions
+{
+    private final LightEngine engine;
+
+    // Light giving effects per entity: entity id -> potion id -> end tick
+    private final Int2ObjectOpenHashMap<Int2LongOpenHashMap> effects = new Int2ObjectOpenHashMap<>();
+
+    // Effects due to end on each tick, as packed entity and potion ids
+    private final Long2ObjectOpenHashMap<LongArrayList> endings = new Long2ObjectOpenHashMap<>();
+
+    public LightPotions(LightEngine parEngine)
+    {
+        engine = parEngine;
+    }
+
+    /**
+     * Record an effect added to an entity, if it gives light
+     * @param duration ticks the effect lasts; an end scheduled too early is pushed back when it comes due
+     */
+    public void add(EntityLivingBase entity, Potion potion, int duration)
+    {
+        if (LightRegistry.getPotionLight(potion) <= 0)
+        {
+            return;
+        }
+
+        int id = entity.getEntityId();
+        int potionId = Potion.getIdFromPotion(potion);
+        long endTick = entity.world.getTotalWorldTime() + Math.max(1, duration);
+
+        Int2LongOpenHashMap entityEffects = effects.get(id);
+        if (entityEffects == null)
+        {
+            entityEffects = new Int2LongOpenHashMap(2);
+            effects.put(id, entityEffects);
+        }
+
+        if (entityEffects.get(potionId) != endTick)
+        {
+            entityEffects.put(potionId, endTick);
+            schedule(endTick, id, potionId);
+        }
+
+        // Even if it is already scheduled, e.g. an effect given just before the entity was
+        // spawned: joining resets the entity's potion light before adding its effects again
+        updateLight(entity, entityEffects);
+    }
+
+    /**
+     * Record every light giving effect an entity already has, e.g. when it is loaded with its chunk
+     */
+    public void addActive(EntityLivingBase entity)
+    {
+        for (PotionEffect effect : entity.getActivePotionEffects())
+        {
+            add(entity, effect.getPotion(), effect.getDuration());
+        }
+    }
+
+    /**
+     * Forget an effect removed before its end, e.g. by drinking milk
+     * Its scheduled end is skipped when it comes due
+     */
+    public void remove(EntityLivingBase entity, Potion potion)
+    {
+        Int2LongOpenHashMap entityEffects = effects.get(entity.getEntityId());
+        if (entityEffects != null && entityEffects.containsKey(Potion.getIdFromPotion(potion)))
+        {
+            entityEffects.remove(Potion.getIdFromPotion(potion));
+            updateLight(entity, entityEffects);
+        }
+    }
+
+    /**
+     * Forget an entity that left the world
+     */
+    public void removeEntity(int id)
+    {
+        effects.remove(id);
+    }
+
+    public int size()
+    {
+        return effects.size();
+    }
+
+    /**
+     * End the effects due on this tick
+     */
+    public void tick(World world)
+    {
+        long now = world.getTotalWorldTime();
+        LongArrayList due = endings.remove(now);
+        if (due == null)
+        {
+            return;
+        }
+
+        for (int i = 0; i < due.size(); i++)
+        {
+            long key = due.getLong(i);
+            int id = (int) (key >> 32);
+            int potionId = (int) key;
+
+            // Renewed, removed or gone since this end was scheduled
+            Int2LongOpenHashMap entityEffects = effects.get(id);
+            if (entityEffects == null || entityEffects.get(potionId) != now)
+            {
+                continue;
+            }
+
+            Entity entity = world.getEntityByID(id);
+            if (!(entity instanceof EntityLivingBase))
+            {
+                effects.remove(id);
+                continue;
+            }
+
+            // Entities away from players don't tick, so their effects can outlast the schedule
+            PotionEffect effect = ((EntityLivingBase) entity).getActivePotionEffect(Potion.getPotionById(potionId));
+            if (effect != null && effect.getDuration() > 0)
+            {
+                long endTick = now + effect.getDuration();
+                entityEffects.put(potionId, endTick);
+                schedule(endTick, id, potionId);
+                continue;
+            }
+
+            entityEffects.remove(potionId);
+            updateLight((EntityLivingBase) entity, entityEffects);
+        }
+    }
+
+    private void schedule(long endTick, int id, int potionId)
+    {
+        LongArrayList due = endings.get(endTick);
+        if (due == null)
+        {
+            due = new LongArrayList(4);
+            endings.put(endTick, due);
+        }
+        due.add((long) id << 32 | potionId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Give the entity the light of its brightest remaining effect
+     */
+    private void updateLight(EntityLivingBase entity, Int2LongOpenHashMap entityEffects)
+    {
+        int lightLevel = 0;
+        for (Int2LongMap.Entry entry : entityEffects.int2LongEntrySet())
+        {
+            Potion potion = Potion.getPotionById(entry.getIntKey());
+            if (potion != null)
+            {
+                lightLevel = Math.max(lightLevel, LightRegistry.getPotionLight(potion));
+            }
+        }
+
+        if (entityEffects.isEmpty())
+        {
+            effects.remove(entity.getEntityId());
+        }
+
+        LightSource.get(entity).setPotionLight(lightLevel);
+        engine.onLightChanged(entity);
+    }
+}
@@ -0,0 +1,367 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.item.Item;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.potion.Potion;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.common.event.FMLInterModComms.IMCMessage;
+import net.minecraftforge.fml.common.registry.EntityEntry;
+import net.minecraftforge.fml.common.registry.ForgeRegistries;
+
+/**
+ * Light sources declared by other mods through IMC, and entities and potion effects the config
+ * gives light
+ * Messages are only collected while mods load; at load complete they are compiled into the
+ * tables the passes read, and entity classes are resolved once each, subclasses included
+ * Config entries use the string form of registerEntityLight and win over IMC
+ *
+ * Messages, as a string or as an NBT compound:
+ * registerItemLight   "modid:item=level"   or {item: "modid:item", level: n}
+ * registerEntityLight "modid:entity=level" or {entity: "modid:entity", level: n}
+ * ignoreEntityClass   "modid:entity"       or {entity: "modid:entity"}
+ * Entities can be given by registry name or by class name
+ */
+public final class LightRegistry
+{
+    public static final String REGISTER_ITEM_LIGHT = "registerItemLight";
+    public static final String REGISTER_ENTITY_LIGHT = "registerEntityLight";
+    public static final String IGNORE_ENTITY_CLASS = "ignoreEntityClass";
+
+    // Resolved level of an entity class that is never lit
+    private static final int IGNORED = -1;
+
+    // Collected from IMC until load complete
+    private static final Map<ResourceLocation, Integer> PENDING_ITEM_LIGHTS = new LinkedHashMap<>();
+    private static final Map<String, Integer> PENDING_ENTITY_LIGHTS = new LinkedHashMap<>();
+    private static final Set<String> PENDING_IGNORED = new LinkedHashSet<>();
+    private static final Map<String, Integer> CONFIGURED_ENTITY_LIGHTS = new LinkedHashMap<>();
+    private static final Map<String, Integer> CONFIGURED_POTION_LIGHTS = new LinkedHashMap<>();
+    private static boolean compiled = false;
+
+    // Compiled tables; the entity tables are rebuilt rather than changed, lookups may be running
+    private static final Object2IntOpenHashMap<Item> ITEM_LIGHTS = new Object2IntOpenHashMap<>();
+    private static Map<Class<?>, Integer> entityLights = new HashMap<>();
+    private static Set<Class<?>> ignoredClasses = new HashSet<>();
+    private static volatile Object2IntOpenHashMap<Potion> potionLights = new Object2IntOpenHashMap<>();
+
+    // Level of each entity class, worked out on its first lookup; replaced when the tables change
+    private static volatile ClassValue<Integer> entityClassLights = newEntityClassCache(entityLights, ignoredClasses);
+
+    static
+    {
+        ITEM_LIGHTS.defaultReturnValue(-1);
+    }
+
+    private LightRegistry()
+    {
+        // Static helpers only
+    }
+
+    /**
+     * Collect the IMC messages sent to this mod
+     */
+    public static void receive(Iterable<IMCMessage> messages)
+    {
+        for (IMCMessage message : messages)
+        {
+            try
+            {
+                receive(message);
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("[MovingLightSource] Ignoring bad " + message.key + " message from " + message.getSender() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void receive(IMCMessage message)
+    {
+        if (REGISTER_ITEM_LIGHT.equals(message.key))
+        {
+            PENDING_ITEM_LIGHTS.put(new ResourceLocation(getName(message, "item")), getLevel(message));
+        }
+        else if (REGISTER_ENTITY_LIGHT.equals(message.key))
+        {
+            PENDING_ENTITY_LIGHTS.put(getName(message, "entity"), getLevel(message));
+        }
+        else if (IGNORE_ENTITY_CLASS.equals(message.key))
+        {
+            PENDING_IGNORED.add(getName(message, "entity"));
+        }
+        else
+        {
+            System.out.println("[MovingLightSource] Unknown IMC message " + message.key + " from " + message.getSender());
+        }
+    }
+
+    /**
+     * Set the intrinsic entity lights from the config, e.g. "minecraft:blaze=10"
+     * Takes effect right away if the tables are already built
+     */
+    public static void setConfiguredEntityLights(String[] entries)
+    {
+        parseConfigured(entries, CONFIGURED_ENTITY_LIGHTS);
+        if (compiled)
+        {
+            compileEntityLights();
+        }
+    }
+
+    /**
+     * Set the potion effects that give light from the config, e.g. "minecraft:glowing=10"
+     * Takes effect right away if the tables are already built
+     */
+    public static void setConfiguredPotionLights(String[] entries)
+    {
+        parseConfigured(entries, CONFIGURED_POTION_LIGHTS);
+        if (compiled)
+        {
+            compilePotionLights();
+        }
+    }
+
+    private static void parseConfigured(String[] entries, Map<String, Integer> parsed)
+    {
+        parsed.clear();
+        for (String entry : entries)
+        {
+            int separator = entry.indexOf('=');
+            try
+            {
+                parsed.put(entry.substring(0, separator).trim(), clampLevel(Integer.parseInt(entry.substring(separator + 1).trim())));
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("[MovingLightSource] Ignoring bad light config entry " + entry);
+            }
+        }
+    }
+
+    /**
+     * Build the lookup tables from the collected messages, once every mod has registered its items and entities
+     */
+    public static void compile()
+    {
+        compiled = true;
+        compileItemLights();
+        ItemLightCache.clear();
+        compileEntityLights();
+        compilePotionLights();
+
+        System.out.println("[MovingLightSource] Registered " + ITEM_LIGHTS.size() + " item lights, "
+                + entityLights.size() + " entity lights, " + potionLights.size() + " potion lights and "
+                + ignoredClasses.size() + " ignored entity classes");
+    }
+
+    private static void compileItemLights()
+    {
+        ITEM_LIGHTS.clear();
+        for (Map.Entry<ResourceLocation, Integer> entry : PENDING_ITEM_LIGHTS.entrySet())
+        {
+            Item item = ForgeRegistries.ITEMS.getValue(entry.getKey());
+            if (item == null)
+            {
+                System.out.println("[MovingLightSource] No item " + entry.getKey() + " for registerItemLight");
+                continue;
+            }
+            ITEM_LIGHTS.put(item, entry.getValue().intValue());
+        }
+    }
+
+    private static void compileEntityLights()
+    {
+        Map<Class<?>, Integer> lights = new HashMap<>();
+        putEntityLights(lights, PENDING_ENTITY_LIGHTS);
+        putEntityLights(lights, CONFIGURED_ENTITY_LIGHTS);
+
+        Set<Class<?>> ignored = new HashSet<>();
+        for (String name : PENDING_IGNORED)
+        {
+            Class<?> entityClass = findEntityClass(name);
+            if (entityClass != null)
+            {
+                ignored.add(entityClass);
+            }
+        }
+
+        entityLights = lights;
+        ignoredClasses = ignored;
+        entityClassLights = newEntityClassCache(lights, ignored);
+    }
+
+    private static void compilePotionLights()
+    {
+        Object2IntOpenHashMap<Potion> lights = new Object2IntOpenHashMap<>();
+        for (Map.Entry<String, Integer> entry : CONFIGURED_POTION_LIGHTS.entrySet())
+        {
+            Potion potion = ForgeRegistries.POTIONS.getValue(new ResourceLocation(entry.getKey()));
+            if (potion == null)
+            {
+                System.out.println("[MovingLightSource] No potion effect " + entry.getKey() + " to give light to");
+                continue;
+            }
+            lights.put(potion, entry.getValue().intValue());
+        }
+        potionLights = lights;
+    }
+
+    private static void putEntityLights(Map<Class<?>, Integer> lights, Map<String, Integer> entries)
+    {
+        for (Map.Entry<String, Integer> entry : entries.entrySet())
+        {
+            Class<?> entityClass = findEntityClass(entry.getKey());
+            if (entityClass != null)
+            {
+                lights.put(entityClass, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the registered light level of an item, or -1 if it has none
+     */
+    public static int getItemLight(Item item)
+    {
+        return ITEM_LIGHTS.getInt(item);
+    }
+
+    /**
+     * @return the light level a potion effect gives, 0 if none
+     */
+    public static int getPotionLight(Potion potion)
+    {
+        return potionLights.getInt(potion);
+    }
+
+    /**
+     * @return the registered light level of an entity, 0 if it has none or is ignored
+     */
+    public static int getEntityLight(Entity entity)
+    {
+        return Math.max(0, entityClassLights.get(entity.getClass()).intValue());
+    }
+
+    /**
+     * Entities never lit by their held items or fire
+     */
+    public static boolean isIgnored(Entity entity)
+    {
+        return entityClassLights.get(entity.getClass()).intValue() == IGNORED;
+    }
+
+    private static ClassValue<Integer> newEntityClassCache(final Map<Class<?>, Integer> lights, final Set<Class<?>> ignored)
+    {
+        return new ClassValue<Integer>()
+        {
+            @Override
+            protected Integer computeValue(Class<?> type)
+            {
+                // The closest registered superclass decides
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+                {
+                    if (ignored.contains(c))
+                    {
+                        return IGNORED;
+                    }
+
+                    Integer level = lights.get(c);
+                    if (level != null)
+                    {
+                        return level;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    private static String getName(IMCMessage message, String key)
+    {
+        if (message.isStringMessage())
+        {
+            String value = message.getStringValue();
+            int separator = value.indexOf('=');
+            return separator < 0 ? value : value.substring(0, separator);
+        }
+
+        if (message.isNBTMessage())
+        {
+            NBTTagCompound tag = message.getNBTValue();
+            if (tag.hasKey(key))
+            {
+                return tag.getString(key);
+            }
+        }
+
+        throw new IllegalArgumentException("missing " + key);
+    }
+
+    private static int getLevel(IMCMessage message)
+    {
+        if (message.isStringMessage())
+        {
+            String value = message.getStringValue();
+            int separator = value.indexOf('=');
+            if (separator < 0)
+            {
+                throw new IllegalArgumentException("missing level");
+            }
+            return clampLevel(Integer.parseInt(value.substring(separator + 1).trim()));
+        }
+
+        if (message.isNBTMessage() && message.getNBTValue().hasKey("level"))
+        {
+            return clampLevel(message.getNBTValue().getInteger("level"));
+        }
+
+        throw new IllegalArgumentException("missing level");
+    }
+
+    private static int clampLevel(int level)
+    {
+        return Math.max(0, Math.min(15, level));
+    }
+
+    /**
+     * Find an entity class by registry name ("modid:name") or by class name
+     */
+    private static Class<?> findEntityClass(String name)
+    {
+        if (name.indexOf(':') >= 0)
+        {
+            EntityEntry entry = ForgeRegistries.ENTITIES.getValue(new ResourceLocation(name));
+            if (entry != null)
+            {
+                return entry.getEntityClass();
+            }
+        }
+        else
+        {
+            try
+            {
+                Class<?> entityClass = Class.forName(name, false, LightRegistry.class.getClassLoader());
+                if (Entity.class.isAssignableFrom(entityClass))
+                {
+                    return entityClass;
+                }
+            }
+            catch (ClassNotFoundException e)
+            {
+                // Reported below
+            }
+        }
+
+        System.out.println("[MovingLightSource] No entity " + name + " to give light to");
+        return null;
+    }
+}
@@ -0,0 +1,249 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of packed (position, level) lights, each tagged with the owner that wants it
+ * Built fresh every pass from the desired lights, then diffed against the
+ * previous pass in a single merge so only real changes touch the world
+ * Entries are ordered by position and then owner, so several owners wanting the
+ * same position each keep their own entry
+ */
+public class LightSet
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Ranges this short are sorted by insertion
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private long[] entries = new long[INITIAL_CAPACITY];
+    private int[] owners = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Receives the minimal set of per-owner changes between two light sets
+     */
+    public interface Listener
+    {
+        void onPlace(int owner, long packed);
+
+        void onRemove(int owner, long packed);
+
+        void onRelevel(int owner, long previousPacked, long packed);
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long get(int index)
+    {
+        return entries[index];
+    }
+
+    public int getOwner(int index)
+    {
+        return owners[index];
+    }
+
+    public void add(int owner, long packed)
+    {
+        if (size == entries.length)
+        {
+            entries = Arrays.copyOf(entries, size * 2);
+            owners = Arrays.copyOf(owners, size * 2);
+        }
+        entries[size] = packed;
+        owners[size] = owner;
+        size++;
+    }
+
+    /**
+     * Sort the entries by position and owner
+     */
+    public void seal()
+    {
+        sort(0, size - 1);
+    }
+
+    /**
+     * Binary search for a position, ignoring level and owner
+     * @return a packed entry at that position or PackedLight.NONE
+     */
+    public long findPosition(long positionKey)
+    {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midKey = PackedLight.positionKey(entries[mid]);
+
+            if (midKey < positionKey)
+            {
+                low = mid + 1;
+            }
+            else if (midKey > positionKey)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return entries[mid];
+            }
+        }
+
+        return PackedLight.NONE;
+    }
+
+    /**
+     * Merge this (sealed) set against the previous (sealed) set and report the differences
+     * Places and level changes are all reported before any removal, so a position that passes
+     * from one owner to another is never cleared in between
+     */
+    public void diff(LightSet previous, Listener listener)
+    {
+        merge(previous, listener, false);
+        merge(previous, listener, true);
+    }
+
+    private void merge(LightSet previous, Listener listener, boolean removals)
+    {
+        int i = 0;
+        int j = 0;
+
+        while (i < size || j < previous.size)
+        {
+            if (j >= previous.size)
+            {
+                if (!removals)
+                {
+                    listener.onPlace(owners[i], entries[i]);
+                }
+                i++;
+            }
+            else if (i >= size)
+            {
+                if (removals)
+                {
+                    listener.onRemove(previous.owners[j], previous.entries[j]);
+                }
+                j++;
+            }
+            else
+            {
+                int order = compare(entries[i], owners[i], previous.entries[j], previous.owners[j]);
+
+                if (order < 0)
+                {
+                    if (!removals)
+                    {
+                        listener.onPlace(owners[i], entries[i]);
+                    }
+                    i++;
+                }
+                else if (order > 0)
+                {
+                    if (removals)
+                    {
+                        listener.onRemove(previous.owners[j], previous.entries[j]);
+                    }
+                    j++;
+                }
+                else
+                {
+                    if (!removals && entries[i] != previous.entries[j])
+                    {
+                        listener.onRelevel(owners[i], previous.entries[j], entries[i]);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+        }
+    }
+
+    private static int compare(long packed, int owner, long otherPacked, int otherOwner)
+    {
+        int order = Long.compare(PackedLight.positionKey(packed), PackedLight.positionKey(otherPacked));
+        return order != 0 ? order : Integer.compare(owner, otherOwner);
+    }
+
+    /**
+     * In-place quicksort of the parallel entry and owner arrays
+     */
+    private void sort(int low, int high)
+    {
+        while (high - low >= INSERTION_SORT_THRESHOLD)
+        {
+            int mid = (low + high) >>> 1;
+            long pivot = entries[mid];
+            int pivotOwner = owners[mid];
+            int i = low;
+            int j = high;
+
+            while (i <= j)
+            {
+                while (compare(entries[i], owners[i], pivot, pivotOwner) < 0)
+                {
+                    i++;
+                }
+                while (compare(entries[j], owners[j], pivot, pivotOwner) > 0)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // Recurse into the smaller side to bound the stack depth
+            if (j - low < high - i)
+            {
+                sort(low, j);
+                low = i;
+            }
+            else
+            {
+                sort(i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++)
+        {
+            long entry = entries[i];
+            int owner = owners[i];
+            int j = i - 1;
+            while (j >= low && compare(entries[j], owners[j], entry, owner) > 0)
+            {
+                entries[j + 1] = entries[j];
+                owners[j + 1] = owners[j];
+                j--;
+            }
+            entries[j + 1] = entry;
+            owners[j + 1] = owner;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        long entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+
+        int owner = owners[i];
+        owners[i] = owners[j];
+        owners[j] = owner;
+    }
+}
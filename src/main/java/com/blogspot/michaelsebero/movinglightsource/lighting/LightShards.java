@@ -0,0 +1,89 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+
+/**
+ * Round-robin split of one category of emitters across ticks
+ * Each tick only the emitters whose id falls in the current shard are looked at, so the
+ * per-tick cost stays flat as their number grows; the others keep their light as it was
+ * The shard count follows the population, capped so no light is older than the staleness
+ * bound, and only changes between full cycles so every emitter gets its turn
+ */
+public class LightShards
+{
+    private int shardCount = 1;
+    private int shard = 0;
+    private int population = 0;
+    private int counted = 0;
+    private int minShardCount = 1;
+
+    /**
+     * Move on to the next shard, at the start of a tick
+     */
+    public void nextShard()
+    {
+        // Every tick sees all the candidates, only their turns are split up
+        population = counted;
+        counted = 0;
+
+        shard++;
+        if (shard >= shardCount)
+        {
+            shard = 0;
+            shardCount = Math.max(minShardCount, pickShardCount(population));
+        }
+    }
+
+    /**
+     * Go back to a single shard, e.g. when every light is being removed
+     */
+    public void reset()
+    {
+        shardCount = 1;
+        shard = 0;
+    }
+
+    /**
+     * Look at each emitter at most every this many ticks, however few there are
+     * Takes effect at the end of the current cycle
+     */
+    public void setMinShardCount(int parMinShardCount)
+    {
+        minShardCount = Math.max(1, parMinShardCount);
+    }
+
+    /**
+     * Count an emitter that could want a light this tick, whether its turn is now or not
+     */
+    public void countCandidate()
+    {
+        counted++;
+    }
+
+    public boolean isInShard(int id)
+    {
+        return Math.floorMod(id, shardCount) == shard;
+    }
+
+    public int getShard()
+    {
+        return shard;
+    }
+
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+
+    public int getPopulation()
+    {
+        return population;
+    }
+
+    private static int pickShardCount(int population)
+    {
+        int budget = Math.max(1, MainMod.lightUpdatesPerTick);
+        int count = (population + budget - 1) / budget;
+        return Math.max(1, Math.min(count, MainMod.lightMaxStaleTicks));
+    }
+}
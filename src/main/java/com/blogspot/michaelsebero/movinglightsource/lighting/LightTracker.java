@@ -0,0 +1,755 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.projectile.EntityArrow;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraftforge.fml.relauncher.ReflectionHelper;
+
+/**
+ * Reconciles the moving lights of one category of emitters (dropped items, projectiles, living entities)
+ * Emitters are offered during a pass; when the pass ends nearby emitters are merged into clusters,
+ * each cluster resolves to one desired light, and the sorted packed set of desired lights is diffed
+ * against the set applied on the previous pass; the per-owner places, removals and level changes
+ * go through the world's LightOwnership, which shares positions between owners
+ */
+public class LightTracker implements LightSet.Listener
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Slower clusters are placed where they are, about half walking speed in blocks per tick
+    private static final double LOOKAHEAD_MIN_SPEED = 0.05D;
+
+    // EntityArrow.inGround is protected; null if it can't be found, then arrows are judged by how they move
+    private static final Field ARROW_IN_GROUND = findArrowInGround();
+
+    private final LightOwnership ownership;
+    private final LightChunkCache chunkCache;
+    private final EmitterTable emitters = new EmitterTable();
+    private final LightPlacement placement;
+    private final LightShards shards = new LightShards();
+    private LightSet desired = new LightSet();
+    private LightSet applied = new LightSet();
+
+    // Emitters offered since the last pass ended
+    private int offeredCount = 0;
+    private int[] offeredIds = new int[INITIAL_CAPACITY];
+    private int[] offeredLevels = new int[INITIAL_CAPACITY];
+    private double[] offeredX = new double[INITIAL_CAPACITY];
+    private double[] offeredY = new double[INITIAL_CAPACITY];
+    private double[] offeredZ = new double[INITIAL_CAPACITY];
+    private double[] offeredMotionX = new double[INITIAL_CAPACITY];
+    private double[] offeredMotionY = new double[INITIAL_CAPACITY];
+    private double[] offeredMotionZ = new double[INITIAL_CAPACITY];
+
+    // Clusters built from the offered emitters, the first member of each is its leader
+    private int clusterCount = 0;
+    private int[] clusterOwners = new int[INITIAL_CAPACITY];
+    private int[] clusterLevels = new int[INITIAL_CAPACITY];
+    private int[] clusterMembers = new int[INITIAL_CAPACITY];
+    private int[] clusterLeaders = new int[INITIAL_CAPACITY];
+    private long[] clusterSignatures = new long[INITIAL_CAPACITY];
+    private double[] clusterSumX = new double[INITIAL_CAPACITY];
+    private double[] clusterSumY = new double[INITIAL_CAPACITY];
+    private double[] clusterSumZ = new double[INITIAL_CAPACITY];
+    private double[] clusterSpeeds = new double[INITIAL_CAPACITY];
+    private double[] clusterSumMotionX = new double[INITIAL_CAPACITY];
+    private double[] clusterSumMotionY = new double[INITIAL_CAPACITY];
+    private double[] clusterSumMotionZ = new double[INITIAL_CAPACITY];
+    // Latest cluster whose leader is in each cell, and for each cluster the one before it in its cell
+    private final Long2IntOpenHashMap clusterCells = new Long2IntOpenHashMap();
+    private int[] clusterNextInCell = new int[INITIAL_CAPACITY];
+
+    // Clusters left without a light on the last pass because it was already as bright where they are
+    private int suppressedCount = 0;
+
+    // Emitters that rested on the same light long enough to leave the passes, keyed by id, with the
+    // block they were offered at; their light stays claimed in the ownership index until they wake
+    private final Int2LongOpenHashMap restingOwners = new Int2LongOpenHashMap();
+    private final IntArrayList wokenOwners = new IntArrayList();
+
+    // Owners whose claim was released directly, e.g. when they died; if they turn out to still
+    // want a light it is claimed again at the end of the next pass
+    private final IntArrayList releasedOwners = new IntArrayList();
+
+    public LightTracker(LightOwnership parOwnership, LightChunkCache parChunkCache)
+    {
+        ownership = parOwnership;
+        chunkCache = parChunkCache;
+        placement = new LightPlacement(parChunkCache);
+        clusterCells.defaultReturnValue(-1);
+        restingOwners.defaultReturnValue(PackedLight.NONE);
+    }
+
+    /**
+     * Add the light an entity wants this pass, at the entity's feet
+     * Emitters that are not offered during a pass lose their light when the pass ends
+     */
+    public void offer(Entity entity, int lightLevel)
+    {
+        offer(entity, entity.posY, lightLevel);
+    }
+
+    /**
+     * Add the light an entity wants this pass at its position but an explicit height
+     * Its speed is how far it moved since it was last offered: the server has already moved
+     * players to their last packet's position by the end of the tick, so their motion and
+     * last tick position say nothing
+     */
+    public void offer(Entity entity, double y, int lightLevel)
+    {
+        int slot = emitters.touch(entity.getEntityId());
+        long now = chunkCache.getWorld().getTotalWorldTime();
+        long offeredAt = emitters.getOfferedAt(slot);
+        boolean stuck = isStuck(entity);
+
+        double motionX = 0.0D;
+        double motionY = 0.0D;
+        double motionZ = 0.0D;
+        if (offeredAt != 0L && now > offeredAt && !stuck)
+        {
+            double ticks = now - offeredAt;
+            motionX = (entity.posX - emitters.getOfferedX(slot)) / ticks;
+            motionY = (y - emitters.getOfferedY(slot)) / ticks;
+            motionZ = (entity.posZ - emitters.getOfferedZ(slot)) / ticks;
+
+            // Stepping up or settling onto the ground is no reason to lead the light up or down
+            if (entity.onGround)
+            {
+                motionY = 0.0D;
+            }
+        }
+
+        // An emitter rests once it has stayed in the same block long enough; a stuck arrow stays put
+        if (offeredAt != 0L && !stuck
+                && (MathHelper.floor(entity.posX) != MathHelper.floor(emitters.getOfferedX(slot))
+                        || MathHelper.floor(y) != MathHelper.floor(emitters.getOfferedY(slot))
+                        || MathHelper.floor(entity.posZ) != MathHelper.floor(emitters.getOfferedZ(slot))))
+        {
+            emitters.setRestSince(slot, 0L);
+        }
+        emitters.setOffered(slot, entity.posX, y, entity.posZ, now);
+
+        offer(entity.getEntityId(), entity.posX, y, entity.posZ, motionX, motionY, motionZ, lightLevel);
+    }
+
+    /**
+     * Add the light a stationary emitter wants this pass at an explicit position
+     */
+    public void offer(int id, double x, double y, double z, int lightLevel)
+    {
+        offer(id, x, y, z, 0.0D, 0.0D, 0.0D, lightLevel);
+    }
+
+    /**
+     * Add the light an emitter wants this pass at an explicit position
+     * The motion, in blocks per tick, picks the level of detail and lets the light lead a moving emitter
+     */
+    public void offer(int id, double x, double y, double z, double motionX, double motionY, double motionZ, int lightLevel)
+    {
+        Block lightBlock = BlockMovingLightSource.getLightBlockForLevel(lightLevel);
+        if (lightBlock == Blocks.AIR)
+        {
+            return;
+        }
+
+        if (offeredCount == offeredIds.length)
+        {
+            int capacity = offeredCount * 2;
+            offeredIds = Arrays.copyOf(offeredIds, capacity);
+            offeredLevels = Arrays.copyOf(offeredLevels, capacity);
+            offeredX = Arrays.copyOf(offeredX, capacity);
+            offeredY = Arrays.copyOf(offeredY, capacity);
+            offeredZ = Arrays.copyOf(offeredZ, capacity);
+            offeredMotionX = Arrays.copyOf(offeredMotionX, capacity);
+            offeredMotionY = Arrays.copyOf(offeredMotionY, capacity);
+            offeredMotionZ = Arrays.copyOf(offeredMotionZ, capacity);
+        }
+
+        offeredIds[offeredCount] = id;
+        offeredLevels[offeredCount] = lightBlock.getLightValue(lightBlock.getDefaultState());
+        offeredX[offeredCount] = x;
+        offeredY[offeredCount] = y;
+        offeredZ[offeredCount] = z;
+        offeredMotionX[offeredCount] = motionX;
+        offeredMotionY[offeredCount] = motionY;
+        offeredMotionZ[offeredCount] = motionZ;
+        offeredCount++;
+    }
+
+    /**
+     * Resolve the offered emitters into lights, diff them against the applied ones and update the world
+     * Emitters outside the current shard keep their lights as they are
+     * Offers made after this call belong to the next pass
+     */
+    public void endPass()
+    {
+        emitters.nextGeneration();
+        desired.clear();
+        suppressedCount = 0;
+
+        buildClusters(MainMod.lightClusterRadius);
+        int keepDistance = MathHelper.floor(MainMod.lightClusterRadius);
+        for (int cluster = 0; cluster < clusterCount; cluster++)
+        {
+            resolveCluster(cluster, keepDistance);
+        }
+        offeredCount = 0;
+
+        if (shards.getShardCount() > 1)
+        {
+            for (int i = 0; i < applied.size(); i++)
+            {
+                // Owners released since the last pass, e.g. on death or pickup, are not carried
+                // forward, or reclaimReleased() would bring their light back until their shard is up
+                int owner = applied.getOwner(i);
+                if (!shards.isInShard(owner) && !releasedOwners.contains(owner))
+                {
+                    emitters.touch(owner);
+                    desired.add(owner, applied.get(i));
+                }
+            }
+        }
+
+        desired.seal();
+        desired.diff(applied, this);
+
+        LightSet swap = applied;
+        applied = desired;
+        desired = swap;
+
+        releaseWoken();
+        reclaimReleased();
+    }
+
+    /**
+     * Remove every light this tracker placed, e.g. when the feature is switched off
+     */
+    public void removeAll()
+    {
+        offeredCount = 0;
+        shards.reset();
+        wakeAll();
+        endPass();
+        emitters.clear();
+    }
+
+    /**
+     * Which emitters of this category get looked at on the current tick
+     */
+    public LightShards getShards()
+    {
+        return shards;
+    }
+
+    public long getSkippedPlacements()
+    {
+        return placement.getSkipped();
+    }
+
+    public int getSuppressedCount()
+    {
+        return suppressedCount;
+    }
+
+    /**
+     * The lights applied on the last pass, for debug output only
+     */
+    public LightSet getAppliedLights()
+    {
+        return applied;
+    }
+
+    /**
+     * Level of detail tier an owner's light was last resolved with
+     */
+    public int getTier(int owner)
+    {
+        int slot = emitters.find(owner);
+        return slot < 0 ? LightLod.NEAR : emitters.getTier(slot);
+    }
+
+    public boolean hasLights()
+    {
+        return applied.size() > 0 || !restingOwners.isEmpty();
+    }
+
+    public int getRestingCount()
+    {
+        return restingOwners.size();
+    }
+
+    /**
+     * Whether an entity's light is resting, so it needs no work this tick
+     * A resting entity that has moved to another block is woken and must be offered again
+     */
+    public boolean isResting(Entity entity)
+    {
+        return isResting(entity, entity.posY);
+    }
+
+    /**
+     * Whether an entity's light, offered at an explicit height, is resting
+     */
+    public boolean isResting(Entity entity, double y)
+    {
+        long restingAt = restingOwners.get(entity.getEntityId());
+        if (restingAt == PackedLight.NONE)
+        {
+            return false;
+        }
+
+        if (restingAt == PackedLight.pack(MathHelper.floor(entity.posX), MathHelper.floor(y), MathHelper.floor(entity.posZ), 0))
+        {
+            return true;
+        }
+
+        wake(entity.getEntityId());
+        return false;
+    }
+
+    /**
+     * Put a resting emitter back into the passes, e.g. because it moved or changed what it holds
+     * If it isn't offered on the next pass its light is released then
+     */
+    public void wake(int id)
+    {
+        if (restingOwners.remove(id) == PackedLight.NONE)
+        {
+            return;
+        }
+
+        wokenOwners.add(id);
+        int slot = emitters.find(id);
+        if (slot >= 0)
+        {
+            emitters.setRestSince(slot, 0L);
+        }
+    }
+
+    /**
+     * Wake resting emitters whose entity is gone, as a safety net for removals no event reported
+     */
+    public void wakeMissing()
+    {
+        World world = chunkCache.getWorld();
+        IntArrayList missing = new IntArrayList();
+        for (int id : restingOwners.keySet())
+        {
+            Entity entity = world.getEntityByID(id);
+            if (entity == null || entity.isDead)
+            {
+                missing.add(id);
+            }
+        }
+
+        for (int i = 0; i < missing.size(); i++)
+        {
+            wake(missing.getInt(i));
+        }
+    }
+
+    private void wakeAll()
+    {
+        IntArrayList all = new IntArrayList(restingOwners.keySet());
+        for (int i = 0; i < all.size(); i++)
+        {
+            wake(all.getInt(i));
+        }
+    }
+
+    /**
+     * Forget an owner whose light the ownership index released directly, e.g. because it died
+     */
+    public void onOwnerReleased(int id)
+    {
+        restingOwners.remove(id);
+        releasedOwners.add(id);
+    }
+
+    /**
+     * Claim the light again for released owners that still want one, e.g. after a cancelled pickup
+     * Their entries in the applied set didn't change, so the diff doesn't report them
+     */
+    private void reclaimReleased()
+    {
+        for (int i = 0; i < releasedOwners.size(); i++)
+        {
+            int owner = releasedOwners.getInt(i);
+            int slot = emitters.find(owner);
+            if (slot >= 0 && emitters.isCurrent(slot) && emitters.getLight(slot) != PackedLight.NONE && !ownership.isOwner(owner))
+            {
+                ownership.acquire(owner, emitters.getLight(slot));
+            }
+        }
+        releasedOwners.clear();
+    }
+
+    /**
+     * Release the claims of woken emitters that didn't get a light on this pass
+     */
+    private void releaseWoken()
+    {
+        for (int i = 0; i < wokenOwners.size(); i++)
+        {
+            int owner = wokenOwners.getInt(i);
+            if (restingOwners.containsKey(owner))
+            {
+                continue;
+            }
+
+            int slot = emitters.find(owner);
+            if (slot < 0 || !emitters.isCurrent(slot) || emitters.getLight(slot) == PackedLight.NONE)
+            {
+                ownership.release(owner);
+            }
+        }
+        wokenOwners.clear();
+    }
+
+    /**
+     * Whether this tracker placed the light at a position
+     */
+    public boolean isTrackedLight(BlockPos pos)
+    {
+        return applied.findPosition(PackedLight.positionKey(PackedLight.pack(pos.getX(), pos.getY(), pos.getZ(), 0))) != PackedLight.NONE;
+    }
+
+    /**
+     * Group offered emitters that are within the radius of a cluster leader
+     * A radius of zero gives every emitter its own cluster
+     */
+    private void buildClusters(double radius)
+    {
+        clusterCount = 0;
+        clusterCells.clear();
+        double radiusSq = radius * radius;
+
+        for (int i = 0; i < offeredCount; i++)
+        {
+            int cluster = -1;
+            long cellKey = 0L;
+
+            if (radius > 0.0D)
+            {
+                int cellX = MathHelper.floor(offeredX[i] / radius);
+                int cellY = MathHelper.floor(offeredY[i] / radius);
+                int cellZ = MathHelper.floor(offeredZ[i] / radius);
+                cellKey = cellKey(cellX, cellY, cellZ);
+                cluster = findNearbyCluster(i, cellX, cellY, cellZ, radiusSq);
+            }
+
+            if (cluster < 0)
+            {
+                cluster = newCluster(i);
+                if (radius > 0.0D)
+                {
+                    clusterNextInCell[cluster] = clusterCells.get(cellKey);
+                    clusterCells.put(cellKey, cluster);
+                }
+            }
+            else
+            {
+                joinCluster(cluster, i);
+            }
+        }
+    }
+
+    private int findNearbyCluster(int offer, int cellX, int cellY, int cellZ, double radiusSq)
+    {
+        for (int dx = -1; dx <= 1; dx++)
+        {
+            for (int dy = -1; dy <= 1; dy++)
+            {
+                for (int dz = -1; dz <= 1; dz++)
+                {
+                    int cluster = clusterCells.get(cellKey(cellX + dx, cellY + dy, cellZ + dz));
+                    for (; cluster >= 0; cluster = clusterNextInCell[cluster])
+                    {
+                        int leader = clusterLeaders[cluster];
+                        double distX = offeredX[offer] - offeredX[leader];
+                        double distY = offeredY[offer] - offeredY[leader];
+                        double distZ = offeredZ[offer] - offeredZ[leader];
+                        if (distX * distX + distY * distY + distZ * distZ <= radiusSq)
+                        {
+                            return cluster;
+                        }
+                    }
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private int newCluster(int offer)
+    {
+        if (clusterCount == clusterOwners.length)
+        {
+            int capacity = clusterCount * 2;
+            clusterOwners = Arrays.copyOf(clusterOwners, capacity);
+            clusterLevels = Arrays.copyOf(clusterLevels, capacity);
+            clusterMembers = Arrays.copyOf(clusterMembers, capacity);
+            clusterLeaders = Arrays.copyOf(clusterLeaders, capacity);
+            clusterNextInCell = Arrays.copyOf(clusterNextInCell, capacity);
+            clusterSignatures = Arrays.copyOf(clusterSignatures, capacity);
+            clusterSumX = Arrays.copyOf(clusterSumX, capacity);
+            clusterSumY = Arrays.copyOf(clusterSumY, capacity);
+            clusterSumZ = Arrays.copyOf(clusterSumZ, capacity);
+            clusterSpeeds = Arrays.copyOf(clusterSpeeds, capacity);
+            clusterSumMotionX = Arrays.copyOf(clusterSumMotionX, capacity);
+            clusterSumMotionY = Arrays.copyOf(clusterSumMotionY, capacity);
+            clusterSumMotionZ = Arrays.copyOf(clusterSumMotionZ, capacity);
+        }
+
+        int cluster = clusterCount++;
+        clusterOwners[cluster] = offeredIds[offer];
+        clusterLevels[cluster] = offeredLevels[offer];
+        clusterMembers[cluster] = 1;
+        clusterLeaders[cluster] = offer;
+        clusterSignatures[cluster] = signatureOf(offeredIds[offer]);
+        clusterSumX[cluster] = offeredX[offer];
+        clusterSumY[cluster] = offeredY[offer];
+        clusterSumZ[cluster] = offeredZ[offer];
+        clusterSpeeds[cluster] = getSpeed(offer);
+        clusterSumMotionX[cluster] = offeredMotionX[offer];
+        clusterSumMotionY[cluster] = offeredMotionY[offer];
+        clusterSumMotionZ[cluster] = offeredMotionZ[offer];
+        return cluster;
+    }
+
+    private void joinCluster(int cluster, int offer)
+    {
+        // Lowest id owns the cluster so ownership doesn't depend on entity list order
+        clusterOwners[cluster] = Math.min(clusterOwners[cluster], offeredIds[offer]);
+        clusterLevels[cluster] = Math.max(clusterLevels[cluster], offeredLevels[offer]);
+        clusterMembers[cluster]++;
+        clusterSignatures[cluster] += signatureOf(offeredIds[offer]);
+        clusterSumX[cluster] += offeredX[offer];
+        clusterSumY[cluster] += offeredY[offer];
+        clusterSumZ[cluster] += offeredZ[offer];
+        clusterSpeeds[cluster] = Math.max(clusterSpeeds[cluster], getSpeed(offer));
+        clusterSumMotionX[cluster] += offeredMotionX[offer];
+        clusterSumMotionY[cluster] += offeredMotionY[offer];
+        clusterSumMotionZ[cluster] += offeredMotionZ[offer];
+    }
+
+    private double getSpeed(int offer)
+    {
+        return Math.sqrt(offeredMotionX[offer] * offeredMotionX[offer]
+                + offeredMotionY[offer] * offeredMotionY[offer]
+                + offeredMotionZ[offer] * offeredMotionZ[offer]);
+    }
+
+    /**
+     * Pick the light position for a cluster, placed at its centroid
+     * While membership is unchanged the cluster keeps its light as long as the centroid
+     * stays within keepDistance of it, so members milling about don't move the light;
+     * fast and far clusters keep it over the longer distances of their level of detail
+     */
+    private void resolveCluster(int cluster, int keepDistance)
+    {
+        int slot = emitters.touch(clusterOwners[cluster]);
+        long signature = clusterSignatures[cluster];
+
+        double centerX = clusterSumX[cluster] / clusterMembers[cluster];
+        double centerY = clusterSumY[cluster] / clusterMembers[cluster];
+        double centerZ = clusterSumZ[cluster] / clusterMembers[cluster];
+        int blockX = MathHelper.floor(centerX);
+        int blockY = MathHelper.floor(centerY);
+        int blockZ = MathHelper.floor(centerZ);
+
+        long lastLight = emitters.getLight(slot);
+        boolean sameMembers = emitters.getSignature(slot) == signature;
+        emitters.setSignature(slot, signature);
+
+        int tier = LightLod.getTier(clusterSpeeds[cluster], getNearestPlayerDistanceSq(centerX, centerY, centerZ));
+        emitters.setTier(slot, tier);
+        int lightLevel = LightLod.getLightLevel(tier, clusterLevels[cluster]);
+        if (lightLevel == 0)
+        {
+            emitters.setLight(slot, PackedLight.NONE);
+            return;
+        }
+
+        // A light that adds nothing, e.g. a torch outdoors at noon, is not placed or is removed
+        if (MainMod.suppressLightsInAmbientLight && placement.getAmbientLight(blockX, blockY, blockZ) >= lightLevel)
+        {
+            emitters.setLight(slot, PackedLight.NONE);
+            suppressedCount++;
+            return;
+        }
+
+        // Single emitters near a player follow their owner block by block
+        int keep = LightLod.getKeepDistance(tier, clusterMembers[cluster] > 1 && sameMembers ? keepDistance : 0);
+
+        // Lead a moving cluster to where it will be, so it doesn't outrun its light between passes;
+        // the light only moves again once the prediction is off by more than the tolerance
+        int ownerX = blockX;
+        int ownerY = blockY;
+        int ownerZ = blockZ;
+        if (MainMod.lightLookaheadTicks > 0.0D && clusterSpeeds[cluster] > LOOKAHEAD_MIN_SPEED)
+        {
+            double ticks = MainMod.lightLookaheadTicks / clusterMembers[cluster];
+            blockX = MathHelper.floor(centerX + clusterSumMotionX[cluster] * ticks);
+            blockY = MathHelper.floor(centerY + clusterSumMotionY[cluster] * ticks);
+            blockZ = MathHelper.floor(centerZ + clusterSumMotionZ[cluster] * ticks);
+            keep = Math.max(keep, MainMod.lightLookaheadTolerance);
+        }
+
+        // Stay on the last light if it is still close enough, so items bobbing across a
+        // block boundary don't drag their light up and down
+        if (lastLight != PackedLight.NONE
+                && Math.abs(PackedLight.getX(lastLight) - blockX) <= keep
+                && Math.abs(PackedLight.getZ(lastLight) - blockZ) <= keep
+                && PackedLight.getY(lastLight) >= blockY - keep
+                && PackedLight.getY(lastLight) <= blockY + 1 + keep)
+        {
+            if (placement.isLight(PackedLight.getX(lastLight), PackedLight.getY(lastLight), PackedLight.getZ(lastLight)))
+            {
+                long packed = PackedLight.withLevel(lastLight, lightLevel);
+                emitters.setLight(slot, packed);
+                addLight(cluster, slot, lastLight, packed);
+                return;
+            }
+        }
+
+        // Nearest free spot around the centroid, or around the owner itself if the predicted
+        // spot is walled in; if none, keep trying next pass
+        long packed = placement.find(blockX, blockY, blockZ, lightLevel);
+        if (packed == PackedLight.NONE && (blockX != ownerX || blockY != ownerY || blockZ != ownerZ))
+        {
+            packed = placement.find(ownerX, ownerY, ownerZ, lightLevel);
+        }
+        emitters.setLight(slot, packed);
+        if (packed != PackedLight.NONE)
+        {
+            addLight(cluster, slot, lastLight, packed);
+        }
+    }
+
+    /**
+     * Want a cluster's light on this pass, or let a single emitter that has kept the same block
+     * and light for long enough rest: it leaves the passes and keeps its light until it is woken
+     * Motion isn't trusted for this, gravity keeps a grounded mob's motion from ever reaching zero
+     */
+    private void addLight(int cluster, int slot, long lastLight, long packed)
+    {
+        int owner = clusterOwners[cluster];
+
+        if (MainMod.restingLightDelayTicks > 0
+                && clusterMembers[cluster] == 1
+                && packed == lastLight)
+        {
+            long now = chunkCache.getWorld().getTotalWorldTime();
+            long restSince = emitters.getRestSince(slot);
+
+            if (restSince == 0L)
+            {
+                emitters.setRestSince(slot, now);
+            }
+            else if (now - restSince >= MainMod.restingLightDelayTicks)
+            {
+                // Left out of the desired set; the diff sees it go but onRemove keeps the claim
+                int leader = clusterLeaders[cluster];
+                restingOwners.put(owner, PackedLight.pack(
+                        MathHelper.floor(offeredX[leader]), MathHelper.floor(offeredY[leader]), MathHelper.floor(offeredZ[leader]), 0));
+                return;
+            }
+        }
+        else
+        {
+            emitters.setRestSince(slot, 0L);
+        }
+
+        desired.add(owner, packed);
+    }
+
+    private double getNearestPlayerDistanceSq(double x, double y, double z)
+    {
+        EntityPlayer player = chunkCache.getWorld().getClosestPlayer(x, y, z, -1.0D, false);
+        return player == null ? Double.POSITIVE_INFINITY : player.getDistanceSq(x, y, z);
+    }
+
+    @Override
+    public void onPlace(int owner, long packed)
+    {
+        ownership.acquire(owner, packed);
+    }
+
+    @Override
+    public void onRemove(int owner, long packed)
+    {
+        if (restingOwners.containsKey(owner))
+        {
+            return;
+        }
+
+        ownership.release(owner, PackedLight.positionKey(packed));
+    }
+
+    @Override
+    public void onRelevel(int owner, long previousPacked, long packed)
+    {
+        ownership.acquire(owner, packed);
+    }
+
+    /**
+     * Whether an entity is stuck where it is, such as an arrow in a wall, whatever its motion says
+     */
+    private static boolean isStuck(Entity entity)
+    {
+        if (entity instanceof EntityArrow && ARROW_IN_GROUND != null)
+        {
+            try
+            {
+                return ARROW_IN_GROUND.getBoolean(entity);
+            }
+            catch (IllegalAccessException e)
+            {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static Field findArrowInGround()
+    {
+        try
+        {
+            return ReflectionHelper.findField(EntityArrow.class, "inGround", "field_70254_i");
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println("[MovingLightSource] Can't read EntityArrow.inGround, stuck arrows are judged by how they move");
+            return null;
+        }
+    }
+
+    private static long cellKey(int cellX, int cellY, int cellZ)
+    {
+        return ((cellX & 0x3FFFFFFL) << 38) | ((cellZ & 0x3FFFFFFL) << 12) | (cellY & 0xFFFL);
+    }
+
+    /**
+     * Order-independent per-member hash, summed into the cluster signature
+     */
+    private static long signatureOf(int id)
+    {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,76 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+/**
+ * Packs a light position and level into a single long
+ * Layout (high to low): x (26 bits), z (26 bits), y (8 bits), level (4 bits)
+ * Sorting packed values as signed longs groups entries by position, with the
+ * level as the lowest bits so entries for the same position sit next to each other
+ */
+public final class PackedLight
+{
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final int LEVEL_BITS = 4;
+    private static final int Y_BITS = 8;
+    private static final int XZ_BITS = 26;
+    private static final int Z_SHIFT = LEVEL_BITS + Y_BITS;
+    private static final int X_SHIFT = Z_SHIFT + XZ_BITS;
+
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1L;
+    private static final long Y_MASK = (1L << Y_BITS) - 1L;
+    private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1L;
+
+    private PackedLight()
+    {
+        // Static helpers only
+    }
+
+    public static long pack(int x, int y, int z, int level)
+    {
+        return ((x & XZ_MASK) << X_SHIFT)
+             | ((z & XZ_MASK) << Z_SHIFT)
+             | ((y & Y_MASK) << LEVEL_BITS)
+             | (level & LEVEL_MASK);
+    }
+
+    public static int getX(long packed)
+    {
+        return (int) (packed >> X_SHIFT);
+    }
+
+    public static int getY(long packed)
+    {
+        return (int) ((packed >>> LEVEL_BITS) & Y_MASK);
+    }
+
+    public static int getZ(long packed)
+    {
+        return (int) ((packed << (64 - X_SHIFT)) >> (64 - XZ_BITS));
+    }
+
+    public static int getLevel(long packed)
+    {
+        return (int) (packed & LEVEL_MASK);
+    }
+
+    /**
+     * Position part only, ordered the same way as the packed values
+     */
+    public static long positionKey(long packed)
+    {
+        return packed >> LEVEL_BITS;
+    }
+
+    /**
+     * Inverse of positionKey()
+     */
+    public static long fromPositionKey(long positionKey, int level)
+    {
+        return (positionKey << LEVEL_BITS) | (level & LEVEL_MASK);
+    }
+
+    public static long withLevel(long packed, int level)
+    {
+        return (packed & ~LEVEL_MASK) | (level & LEVEL_MASK);
+    }
+}
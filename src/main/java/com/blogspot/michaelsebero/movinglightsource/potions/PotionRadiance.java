@@ -0,0 +1,20 @@
+package com.blogspot.michaelsebero.movinglightsource.potions;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+
+import net.minecraft.potion.Potion;
+
+/**
+ * Makes its bearer give off light for as long as the effect lasts
+ * The light itself comes from the potion light table, like any other configured effect
+ */
+public class PotionRadiance extends Potion
+{
+    public PotionRadiance(String parName)
+    {
+        super(false, 0xFFF1A8);
+        setRegistryName(parName);
+        setPotionName("effect." + MainMod.MODID + "." + parName);
+        setBeneficial();
+    }
+}
@@ -27,7 +27,13 @@ import com.blogspot.michaelsebero.movinglightsource.EventHandler;
 import com.blogspot.michaelsebero.movinglightsource.MainMod;
 import com.blogspot.michaelsebero.movinglightsource.OreGenEventHandler;
 import com.blogspot.michaelsebero.movinglightsource.TerrainGenEventHandler;
+import com.blogspot.michaelsebero.movinglightsource.api.MovingLightApi;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.LightSource;
+import com.blogspot.michaelsebero.movinglightsource.commands.CommandMovingLights;
 import com.blogspot.michaelsebero.movinglightsource.gui.GuiHandler;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightChunkSaving;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightEngine;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightRegistry;
 import com.blogspot.michaelsebero.movinglightsource.networking.MessageExtendedReachAttack;
 import com.blogspot.michaelsebero.movinglightsource.networking.MessageRequestItemStackRegistryFromClient;
 import com.blogspot.michaelsebero.movinglightsource.networking.MessageSendItemStackRegistryToServer;
@@ -49,6 +55,9 @@ import net.minecraft.world.biome.Biome;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.common.config.Configuration;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLInterModComms;
+import net.minecraftforge.fml.common.event.FMLLoadCompleteEvent;
+import net.minecraftforge.fml.common.event.FMLModIdMappingEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
@@ -83,6 +92,7 @@ public class CommonProxy
 
         // Register mod components
         registerTileEntities();
+        registerCapabilities();
         registerModEntities();
         registerEntitySpawns();
         registerFuelHandlers();
@@ -115,6 +125,25 @@ public class CommonProxy
         initItemStackRegistry();    
     }
 
+    public void fmlLifeCycleEvent(FMLInterModComms.IMCEvent event)
+    {
+        // Collect the light sources other mods declare
+        LightRegistry.receive(event.getMessages());
+    }
+
+    public void fmlLifeCycleEvent(FMLLoadCompleteEvent event)
+    {
+        // Every mod's items and entities are registered by now
+        LightRegistry.compile();
+        LightChunkSaving.updateLightIds();
+    }
+
+    public void fmlLifeCycleEvent(FMLModIdMappingEvent event)
+    {
+        // Block ids may have been remapped to the ones a world was saved with
+        LightChunkSaving.updateLightIds();
+    }
+
     public void fmlLifeCycleEvent(FMLServerAboutToStartEvent event) 
     {
         // Server initialization logic here
@@ -127,7 +156,8 @@ public class CommonProxy
 
     public void fmlLifeCycleEvent(FMLServerStoppingEvent event) 
     {
-        // Server shutdown preparation
+        // Server shutdown preparation, before the worlds are saved
+        LightEngine.shutdown();
     }
 
     public void fmlLifeCycleEvent(FMLServerStoppedEvent event) 
@@ -138,7 +168,7 @@ public class CommonProxy
     public void fmlLifeCycleEvent(FMLServerStartingEvent event) 
     {
         // Register server commands
-        // event.registerServerCommand(new CommandStructureCapture());
+        event.registerServerCommand(new CommandMovingLights());
     }
         
     /**
@@ -216,6 +246,172 @@ public class CommonProxy
         ).getBoolean(true);
         System.out.println("Burning entities give off light = " + MainMod.allowBurningEntitiesToGiveOffLight);
         
+        MainMod.lightClusterRadius = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light cluster radius", 
+            2.0D, 
+            "Light sources closer than this many blocks share one light at their center. 0 gives every source its own light.",
+            0.0D,
+            8.0D
+        ).getDouble(2.0D);
+        System.out.println("Light cluster radius = " + MainMod.lightClusterRadius);
+        
+        MainMod.suppressLightsInAmbientLight = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Skip lights where it is already bright", 
+            true, 
+            "Don't place a moving light where daylight or other lights are already at least as bright."
+        ).getBoolean(true);
+        System.out.println("Skip lights where it is already bright = " + MainMod.suppressLightsInAmbientLight);
+        
+        MainMod.lodFastSpeed = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light LOD fast speed", 
+            0.35D, 
+            "Light sources moving faster than this many blocks per tick (elytra, minecarts, arrows) move their light in bigger steps. 0 turns this off.",
+            0.0D,
+            10.0D
+        ).getDouble(0.35D);
+        System.out.println("Light LOD fast speed = " + MainMod.lodFastSpeed);
+        
+        MainMod.lodFastKeepDistance = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light LOD fast step", 
+            4, 
+            "How many blocks a fast light source travels before its light moves.",
+            0,
+            16
+        ).getInt(4);
+        System.out.println("Light LOD fast step = " + MainMod.lodFastKeepDistance);
+        
+        MainMod.lodFarDistance = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light LOD far distance", 
+            48.0D, 
+            "Light sources further than this many blocks from every player move their light in bigger steps. 0 turns this off.",
+            0.0D,
+            256.0D
+        ).getDouble(48.0D);
+        System.out.println("Light LOD far distance = " + MainMod.lodFarDistance);
+        
+        MainMod.lodFarKeepDistance = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light LOD far step", 
+            4, 
+            "How many blocks a far light source travels before its light moves.",
+            0,
+            16
+        ).getInt(4);
+        System.out.println("Light LOD far step = " + MainMod.lodFarKeepDistance);
+        
+        MainMod.lodFarLevelDrop = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light LOD far level drop", 
+            0, 
+            "How much dimmer the lights of far light sources are.",
+            0,
+            15
+        ).getInt(0);
+        System.out.println("Light LOD far level drop = " + MainMod.lodFarLevelDrop);
+        
+        MainMod.lightLookaheadTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light lookahead ticks", 
+            2.0D, 
+            "Moving light sources get their light where they will be this many ticks ahead, so they don't outrun it. 0 turns this off.",
+            0.0D,
+            10.0D
+        ).getDouble(2.0D);
+        System.out.println("Light lookahead ticks = " + MainMod.lightLookaheadTicks);
+        
+        MainMod.lightLookaheadTolerance = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light lookahead tolerance", 
+            1, 
+            "How many blocks the predicted position can drift from a moving light source's light before the light moves.",
+            0,
+            8
+        ).getInt(1);
+        System.out.println("Light lookahead tolerance = " + MainMod.lightLookaheadTolerance);
+        
+        MainMod.lightUpdatesPerTick = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light updates per tick", 
+            64, 
+            "Dropped items and projectiles are spread over several ticks once there are more than this many of each.",
+            1,
+            4096
+        ).getInt(64);
+        System.out.println("Light updates per tick = " + MainMod.lightUpdatesPerTick);
+        
+        MainMod.lightMaxStaleTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Light max stale ticks", 
+            4, 
+            "However many items and projectiles there are, each one's light is updated at least this often in ticks.",
+            1,
+            20
+        ).getInt(4);
+        System.out.println("Light max stale ticks = " + MainMod.lightMaxStaleTicks);
+        
+        MainMod.restingLightDelayTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Resting light delay ticks", 
+            40, 
+            "Light sources that haven't moved for this many ticks (items on the ground, stuck arrows, armor stands) keep their light without being checked every tick. 0 turns this off.",
+            0,
+            1200
+        ).getInt(40);
+        System.out.println("Resting light delay ticks = " + MainMod.restingLightDelayTicks);
+        
+        MainMod.heldLightOnDelayTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Held light on delay ticks", 
+            3, 
+            "A held item's light only turns on, or changes level, once the item has been held this many ticks. Keeps hotbar scrolling from relighting every tick. 0 turns this off.",
+            0,
+            40
+        ).getInt(3);
+        System.out.println("Held light on delay ticks = " + MainMod.heldLightOnDelayTicks);
+        
+        MainMod.heldLightOffDelayTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Held light off delay ticks", 
+            5, 
+            "A held item's light only turns off once the item has been gone this many ticks. 0 turns this off.",
+            0,
+            40
+        ).getInt(5);
+        System.out.println("Held light off delay ticks = " + MainMod.heldLightOffDelayTicks);
+        
+        MainMod.intrinsicEntityLights = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Intrinsic entity lights", 
+            new String[] {"minecraft:blaze=10", "minecraft:magma_cube=8"}, 
+            "Entities that give off light by themselves, as entity=level. Entities are given by registry name or class name and include their subclasses."
+        ).getStringList();
+        LightRegistry.setConfiguredEntityLights(MainMod.intrinsicEntityLights);
+        System.out.println("Intrinsic entity lights = " + String.join(", ", MainMod.intrinsicEntityLights));
+        
+        MainMod.intrinsicLightUpdateTicks = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Intrinsic light update ticks", 
+            4, 
+            "Lights of entities that glow by themselves follow them at most every this many ticks. Higher is cheaper with many of them, e.g. around nether fortresses.",
+            1,
+            40
+        ).getInt(4);
+        System.out.println("Intrinsic light update ticks = " + MainMod.intrinsicLightUpdateTicks);
+        
+        MainMod.potionLights = MainMod.config.get(
+            Configuration.CATEGORY_GENERAL, 
+            "Potion effect lights", 
+            new String[] {"minecraft:glowing=10", "movinglightsource:radiance=15"}, 
+            "Potion effects that make their bearer give off light while they last, as effect=level."
+        ).getStringList();
+        LightRegistry.setConfiguredPotionLights(MainMod.potionLights);
+        System.out.println("Potion effect lights = " + String.join(", ", MainMod.potionLights));
+        
         MainMod.config.save();
     }
 
@@ -237,6 +433,16 @@ public class CommonProxy
         GameRegistry.registerTileEntity(TileEntityMovingLightSource.class, "tileEntityMovingLightSource");               
     }
 
+    /**
+     * Registers capabilities
+     */
+    public void registerCapabilities()
+    {
+        System.out.println("Registering capabilities");
+        LightSource.register();
+        MovingLightApi.register();
+    }
+
     /**
      * Registers recipes (currently unused)
      */
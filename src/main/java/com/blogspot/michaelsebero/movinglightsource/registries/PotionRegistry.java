@@ -4,6 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.potions.PotionRadiance;
 
 import net.minecraft.block.Block;
 import net.minecraft.potion.Potion;
@@ -18,6 +19,7 @@ public class PotionRegistry
 {
     // instantiate Potions
 //	public final static PotionCustom MY_COOL_Potion = new PotionCustom();
+	public final static PotionRadiance RADIANCE = new PotionRadiance("radiance");
 
 	/**
 	 * Initialize this mod's {@link Block}s with any post-registration data.
@@ -41,6 +43,7 @@ public class PotionRegistry
 		{
 			final Potion[] arrayPotions = {
 //					MY_COOL_Potion
+					RADIANCE
 			};
 
 			final IForgeRegistry<Potion> registry = event.getRegistry();
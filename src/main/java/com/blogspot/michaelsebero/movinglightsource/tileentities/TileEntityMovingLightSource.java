@@ -1,13 +1,17 @@
 package com.blogspot.michaelsebero.movinglightsource.tileentities;
 
 import com.blogspot.michaelsebero.movinglightsource.blocks.BlockMovingLightSource;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.ILightSource;
+import com.blogspot.michaelsebero.movinglightsource.capabilities.LightSource;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightEngine;
 import com.blogspot.michaelsebero.movinglightsource.utilities.Utilities;
 
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.entity.item.EntityItem;
-import net.minecraft.item.ItemBlock;
+import net.minecraft.init.Blocks;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ITickable;
 import net.minecraft.util.math.AxisAlignedBB;
@@ -20,10 +24,13 @@ import java.util.List;
  */
 public class TileEntityMovingLightSource extends TileEntity implements ITickable
 {
-    private EntityLivingBase theEntityLiving;
-    private EntityItem trackedItem;
+    private static final int NO_OWNER = -1;
+    
+    // The owner is kept by id and looked up when needed, so a light never keeps a dead or unloaded entity reachable
+    private int ownerId = NO_OWNER;
     private boolean isItemLight = false;
     private boolean shouldDie = false;
+    private boolean managed = false; // placed and removed by a LightTracker, not persisted
     private int deathTimer = 1; // REDUCED from 2 to 1 for faster cleanup
     private int tickCounter = 0;
     private static final int UPDATE_FREQUENCY = 3; // REDUCED from 5 to 3 for more responsive updates
@@ -38,6 +45,12 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
     @Override
     public void update()
     {
+        // Tracker lights are removed by their tracker, nothing to check here
+        if (managed)
+        {
+            return;
+        }
+        
         // Performance: Only check every N ticks (unless dying)
         tickCounter++;
         if (tickCounter < UPDATE_FREQUENCY && !shouldDie)
@@ -71,7 +84,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
         }
         
         // Handle item lights separately
-        if (isItemLight || trackedItem != null)
+        if (isItemLight)
         {
             updateItemLight();
             return;
@@ -87,6 +100,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
     private void updateItemLight()
     {
         // If marked as item light but no tracked item, try to find one nearby
+        EntityItem trackedItem = getTrackedItem();
         if (trackedItem == null || trackedItem.isDead)
         {
             trackedItem = findNearbyLightItem();
@@ -94,7 +108,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
             // If still no item found, this light should die immediately
             if (trackedItem == null)
             {
-                Block blockAtLocation = world.getBlockState(getPos()).getBlock();
+                Block blockAtLocation = getBlockAtLocation();
                 if (blockAtLocation instanceof BlockMovingLightSource)
                 {
                     shouldDie = true;
@@ -102,13 +116,14 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
                 }
                 return;
             }
+            ownerId = trackedItem.getEntityId();
         }
         
         // Check if item moved too far
         double distanceSquared = getDistanceSqToEntity(trackedItem);
         if (distanceSquared > ITEM_MAX_DISTANCE_SQ)
         {
-            Block blockAtLocation = world.getBlockState(getPos()).getBlock();
+            Block blockAtLocation = getBlockAtLocation();
             if (blockAtLocation instanceof BlockMovingLightSource)
             {
                 shouldDie = true;
@@ -120,7 +135,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
         // Check if item still emits light using the improved detection
         if (trackedItem.getItem().isEmpty() || !isItemEmittingLight(trackedItem))
         {
-            Block blockAtLocation = world.getBlockState(getPos()).getBlock();
+            Block blockAtLocation = getBlockAtLocation();
             if (blockAtLocation instanceof BlockMovingLightSource)
             {
                 shouldDie = true;
@@ -130,7 +145,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
     }
     
     /**
-     * Check if an EntityItem emits light (using dynamic detection)
+     * Check if an EntityItem emits light, from the item's cached light source
      */
     private boolean isItemEmittingLight(EntityItem entityItem)
     {
@@ -139,29 +154,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
             return false;
         }
         
-        // Use the improved dynamic detection from BlockMovingLightSource
-        // This will work for any mod's light-emitting items
-        return BlockMovingLightSource.LIGHT_SOURCE_MAP.containsKey(entityItem.getItem().getItem()) ||
-               getLightLevelForItem(entityItem.getItem().getItem()) > 0;
-    }
-    
-    /**
-     * Get dynamic light level for an item
-     */
-    private int getLightLevelForItem(net.minecraft.item.Item item)
-    {
-        if (item instanceof ItemBlock)
-        {
-            ItemBlock itemBlock = (ItemBlock) item;
-            Block block = itemBlock.getBlock();
-            
-            if (block != null && block != net.minecraft.init.Blocks.AIR)
-            {
-                return block.getLightValue(block.getDefaultState());
-            }
-        }
-        
-        return 0;
+        return LightSource.get(entityItem).getLightLevel() > 0;
     }
     
     /**
@@ -169,7 +162,8 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
      */
     private void updateLivingEntityLight()
     {
-        Block blockAtLocation = world.getBlockState(getPos()).getBlock();
+        Block blockAtLocation = getBlockAtLocation();
+        EntityLivingBase theEntityLiving = getEntityLiving();
         
         // Clean up if entity is null
         if (theEntityLiving == null)
@@ -203,9 +197,10 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
         }
         
         // Handle entity not burning and not holding light item
-        if (!theEntityLiving.isBurning())
+        ILightSource lightSource = LightSource.get(theEntityLiving);
+        if (lightSource.getReason() != ILightSource.Reason.BURNING)
         {
-            if (!BlockMovingLightSource.isHoldingLightItem(theEntityLiving))
+            if (lightSource.getLightLevel() <= 0)
             {
                 if (blockAtLocation instanceof BlockMovingLightSource)
                 {
@@ -215,7 +210,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
             else 
             {
                 // Handle light level changes - now supports dynamic light levels
-                Block expectedBlock = BlockMovingLightSource.lightBlockToPlace(theEntityLiving);
+                Block expectedBlock = BlockMovingLightSource.getLightBlockForLevel(lightSource.getLightLevel());
                 if (blockAtLocation != expectedBlock)
                 {
                     shouldDie = true;
@@ -224,6 +219,20 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
         }
     }
     
+    /**
+     * Server-side reads go through the light engine's tick-scoped chunk cache
+     */
+    private Block getBlockAtLocation()
+    {
+        if (world.isRemote)
+        {
+            return world.getBlockState(getPos()).getBlock();
+        }
+        
+        IBlockState state = LightEngine.forWorld(world).getChunkCache().getBlockState(getPos());
+        return state == null ? Blocks.AIR : state.getBlock();
+    }
+    
     /**
      * Find nearby EntityItem that emits light (using dynamic detection)
      */
@@ -270,14 +279,14 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
     
     public void setEntityLiving(EntityLivingBase parEntityLiving)
     {
-        theEntityLiving = parEntityLiving;
+        ownerId = parEntityLiving == null ? NO_OWNER : parEntityLiving.getEntityId();
         isItemLight = false;
-        trackedItem = null;
     }
     
     public EntityLivingBase getEntityLiving()
     {
-        return theEntityLiving;
+        Entity owner = getOwner();
+        return !isItemLight && owner instanceof EntityLivingBase ? (EntityLivingBase) owner : null;
     }
     
     /**
@@ -285,9 +294,35 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
      */
     public void setTrackedItem(EntityItem item)
     {
-        trackedItem = item;
+        ownerId = item == null ? NO_OWNER : item.getEntityId();
         isItemLight = true;
-        theEntityLiving = null;
+    }
+    
+    private EntityItem getTrackedItem()
+    {
+        Entity owner = getOwner();
+        return isItemLight && owner instanceof EntityItem ? (EntityItem) owner : null;
+    }
+    
+    /**
+     * Look the owner up by id, null once it has left the world
+     */
+    private Entity getOwner()
+    {
+        return ownerId == NO_OWNER || world == null ? null : world.getEntityByID(ownerId);
+    }
+    
+    /**
+     * Mark this light as owned by a LightTracker, which takes care of removing it
+     */
+    public void setManaged(boolean parManaged)
+    {
+        managed = parManaged;
+    }
+    
+    public boolean isManaged()
+    {
+        return managed;
     }
     
     /**
@@ -309,7 +344,7 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
             setEntityLiving(Utilities.getClosestEntityLiving(world, pos, 2.0D));
             
             // If no living entity found, try to find an item
-            if (theEntityLiving == null)
+            if (ownerId == NO_OWNER)
             {
                 EntityItem nearbyItem = findNearbyLightItem();
                 if (nearbyItem != null)
@@ -324,7 +359,6 @@ public class TileEntityMovingLightSource extends TileEntity implements ITickable
     public void invalidate()
     {
         super.invalidate();
-        theEntityLiving = null;
-        trackedItem = null;
+        ownerId = NO_OWNER;
     }
 }
@@ -0,0 +1,426 @@
+package com.blogspot.michaelsebero.movinglightsource.tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+import com.blogspot.michaelsebero.movinglightsource.lighting.LightChunkSaving;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Offline cleanup of moving light blocks left in region files, e.g. by a crash or by
+ * versions that saved lights with their chunks
+ * Run against a stopped world:
+ * java -cp <game classpath> com.blogspot.michaelsebero.movinglightsource.tools.RegionScrubber <world dir> [--dry-run] [--threads n]
+ * Region files are memory-mapped and their chunks decompressed and scanned in parallel;
+ * only chunks that held lights are written back
+ */
+public class RegionScrubber
+{
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CHUNKS_PER_REGION = 32 * 32;
+    private static final byte COMPRESSION_GZIP = 1;
+    private static final byte COMPRESSION_ZLIB = 2;
+
+    private final IntSet lightIds;
+    private final ExecutorService executor;
+    private final boolean dryRun;
+
+    public RegionScrubber(IntSet parLightIds, int parThreads, boolean parDryRun)
+    {
+        lightIds = parLightIds;
+        executor = Executors.newFixedThreadPool(parThreads);
+        dryRun = parDryRun;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: RegionScrubber <world dir> [--dry-run] [--threads n]");
+            return;
+        }
+
+        File worldDir = new File(args[0]);
+        boolean dryRun = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++)
+        {
+            if ("--dry-run".equals(args[i]))
+            {
+                dryRun = true;
+            }
+            else if ("--threads".equals(args[i]) && i + 1 < args.length)
+            {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            }
+        }
+
+        IntSet lightIds = readLightIds(new File(worldDir, "level.dat"));
+        if (lightIds.isEmpty())
+        {
+            System.out.println("No " + MainMod.MODID + " blocks in the world's id map, nothing to scrub");
+            return;
+        }
+
+        RegionScrubber scrubber = new RegionScrubber(lightIds, threads, dryRun);
+        try
+        {
+            Report total = new Report("total");
+            for (File regionFile : findRegionFiles(worldDir))
+            {
+                Report report = scrubber.scrubRegion(regionFile);
+                System.out.println(report);
+                total.add(report);
+            }
+            System.out.println(total + (dryRun ? " (dry run, nothing written)" : ""));
+        }
+        finally
+        {
+            scrubber.shutdown();
+        }
+    }
+
+    /**
+     * Ids of this mod's blocks from the FML id map saved in level.dat
+     */
+    public static IntSet readLightIds(File levelDat) throws IOException
+    {
+        IntSet lightIds = new IntOpenHashSet();
+        NBTTagCompound root;
+        try (InputStream in = new FileInputStream(levelDat))
+        {
+            root = CompressedStreamTools.readCompressed(in);
+        }
+
+        NBTTagList ids = root.getCompoundTag("FML").getCompoundTag("Registries")
+                .getCompoundTag("minecraft:blocks").getTagList("ids", Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < ids.tagCount(); i++)
+        {
+            NBTTagCompound entry = ids.getCompoundTagAt(i);
+            if (entry.getString("K").startsWith(MainMod.MODID + ":"))
+            {
+                lightIds.add(entry.getInteger("V"));
+            }
+        }
+
+        return lightIds;
+    }
+
+    /**
+     * Region files of the overworld and every dimension folder
+     */
+    public static List<File> findRegionFiles(File worldDir)
+    {
+        List<File> regionDirs = new ArrayList<>();
+        regionDirs.add(new File(worldDir, "region"));
+        File[] children = worldDir.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                if (child.isDirectory() && child.getName().startsWith("DIM"))
+                {
+                    regionDirs.add(new File(child, "region"));
+                }
+            }
+        }
+
+        List<File> regionFiles = new ArrayList<>();
+        for (File regionDir : regionDirs)
+        {
+            File[] files = regionDir.listFiles((dir, name) -> name.endsWith(".mca"));
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    regionFiles.add(file);
+                }
+            }
+        }
+
+        return regionFiles;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Strip the lights from every chunk of one region file
+     */
+    public Report scrubRegion(File regionFile) throws IOException
+    {
+        Report report = new Report(regionFile.getParentFile().getParentFile().getName() + "/" + regionFile.getName());
+        long startTime = System.nanoTime();
+
+        List<Future<ScrubbedChunk>> futures = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, dryRun ? "r" : "rw"))
+        {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < 2 * SECTOR_SIZE)
+            {
+                return report;
+            }
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            for (int index = 0; index < CHUNKS_PER_REGION; index++)
+            {
+                int location = mapped.getInt(index * 4);
+                if (location == 0)
+                {
+                    continue;
+                }
+
+                int sectorOffset = location >>> 8;
+                int sectorCount = location & 255;
+                if ((long) (sectorOffset + sectorCount) * SECTOR_SIZE > mapped.capacity())
+                {
+                    report.corrupt++;
+                    continue;
+                }
+
+                // Each task gets its own view so positions don't clash between threads
+                ByteBuffer chunkData = mapped.duplicate();
+                chunkData.position(sectorOffset * SECTOR_SIZE);
+                chunkData.limit((sectorOffset + sectorCount) * SECTOR_SIZE);
+                final ByteBuffer slice = chunkData.slice();
+                final int chunkIndex = index;
+                futures.add(executor.submit(() -> scrubChunk(chunkIndex, slice)));
+            }
+
+            for (Future<ScrubbedChunk> future : futures)
+            {
+                ScrubbedChunk chunk = getResult(future);
+                report.chunks++;
+
+                if (chunk == null)
+                {
+                    report.corrupt++;
+                }
+                else if (chunk.lights > 0)
+                {
+                    report.rewritten++;
+                    report.lights += chunk.lights;
+                    if (!dryRun)
+                    {
+                        writeChunk(channel, chunk.index, chunk.data);
+                    }
+                }
+            }
+        }
+
+        report.millis = (System.nanoTime() - startTime) / 1000000L;
+        return report;
+    }
+
+    /**
+     * Decompress one chunk and strip its lights
+     * @return the stripped chunk, its data compressed again if anything changed, or null if it couldn't be read
+     */
+    private ScrubbedChunk scrubChunk(int index, ByteBuffer sectors)
+    {
+        try
+        {
+            int length = sectors.getInt(0);
+            byte compression = sectors.get(4);
+            if (length <= 1 || length + 4 > sectors.capacity())
+            {
+                return null;
+            }
+
+            byte[] compressed = new byte[length - 1];
+            sectors.position(5);
+            sectors.get(compressed);
+
+            InputStream in = new ByteArrayInputStream(compressed);
+            if (compression == COMPRESSION_GZIP)
+            {
+                in = new GZIPInputStream(in);
+            }
+            else if (compression == COMPRESSION_ZLIB)
+            {
+                in = new InflaterInputStream(in);
+            }
+            else
+            {
+                return null;
+            }
+
+            NBTTagCompound root;
+            try (DataInputStream data = new DataInputStream(new BufferedInputStream(in)))
+            {
+                root = CompressedStreamTools.read(data);
+            }
+
+            int lights = LightChunkSaving.stripLights(root.getCompoundTag("Level"), lightIds);
+            if (lights == 0)
+            {
+                return new ScrubbedChunk(index, 0, null);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes)))
+            {
+                CompressedStreamTools.write(root, out);
+            }
+            return new ScrubbedChunk(index, lights, bytes.toByteArray());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Write a chunk back in place if it still fits its sectors, otherwise append it to the file
+     */
+    static void writeChunk(FileChannel channel, int index, byte[] compressed) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        channel.read(header, index * 4);
+        int location = header.getInt(0);
+        int sectorOffset = location >>> 8;
+        int sectorCount = location & 255;
+
+        int sectorsNeeded = (compressed.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+        if (sectorsNeeded > 255)
+        {
+            throw new IOException("Chunk " + index + " is too big to store");
+        }
+
+        if (sectorsNeeded > sectorCount)
+        {
+            // Like the game does, leave the old sectors unused and grow the file
+            sectorOffset = (int) ((channel.size() + SECTOR_SIZE - 1) / SECTOR_SIZE);
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(sectorsNeeded * SECTOR_SIZE);
+        chunk.putInt(compressed.length + 1);
+        chunk.put(COMPRESSION_ZLIB);
+        chunk.put(compressed);
+        chunk.rewind();
+        channel.write(chunk, (long) sectorOffset * SECTOR_SIZE);
+
+        ByteBuffer entry = ByteBuffer.allocate(4);
+        entry.putInt(0, sectorOffset << 8 | sectorsNeeded);
+        channel.write(entry, index * 4);
+
+        ByteBuffer timestamp = ByteBuffer.allocate(4);
+        timestamp.putInt(0, (int) (System.currentTimeMillis() / 1000L));
+        channel.write(timestamp, SECTOR_SIZE + index * 4);
+    }
+
+    private static ScrubbedChunk getResult(Future<ScrubbedChunk> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scrubbing", e);
+        }
+        catch (ExecutionException e)
+        {
+            return null;
+        }
+    }
+
+    private static class ScrubbedChunk
+    {
+        private final int index;
+        private final int lights;
+        private final byte[] data;
+
+        private ScrubbedChunk(int parIndex, int parLights, byte[] parData)
+        {
+            index = parIndex;
+            lights = parLights;
+            data = parData;
+        }
+    }
+
+    /**
+     * What scrubbing one region (or all of them) found
+     */
+    public static class Report
+    {
+        private final String name;
+        private int chunks = 0;
+        private int rewritten = 0;
+        private int corrupt = 0;
+        private int lights = 0;
+        private long millis = 0L;
+
+        public Report(String parName)
+        {
+            name = parName;
+        }
+
+        public void add(Report other)
+        {
+            chunks += other.chunks;
+            rewritten += other.rewritten;
+            corrupt += other.corrupt;
+            lights += other.lights;
+            millis += other.millis;
+        }
+
+        public int getChunks()
+        {
+            return chunks;
+        }
+
+        public int getRewritten()
+        {
+            return rewritten;
+        }
+
+        public int getCorrupt()
+        {
+            return corrupt;
+        }
+
+        public int getLights()
+        {
+            return lights;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ": " + chunks + " chunks, " + rewritten + " rewritten, "
+                    + lights + " lights removed, " + corrupt + " unreadable, " + millis + " ms";
+        }
+    }
+}
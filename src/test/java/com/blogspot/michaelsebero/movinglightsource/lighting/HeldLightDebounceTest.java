@@ -0,0 +1,71 @@
+package com.blogspot.michaelsebero.movinglightsource.lighting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.blogspot.michaelsebero.movinglightsource.MainMod;
+
+public class HeldLightDebounceTest
+{
+    private static final int ID = 42;
+    private static final int TORCH = 14;
+
+    private HeldLightDebounce debounce;
+
+    @Before
+    public void setUp()
+    {
+        MainMod.heldLightOnDelayTicks = 3;
+        MainMod.heldLightOffDelayTicks = 5;
+        debounce = new HeldLightDebounce();
+    }
+
+    /**
+     * One living pass per tick; the entity stays a candidate as long as its light is on or pending
+     */
+    @Test
+    public void equippedTorchLightsAfterOnDelay()
+    {
+        long equipped = 100L;
+        for (long tick = equipped; tick < equipped + MainMod.heldLightOnDelayTicks; tick++)
+        {
+            assertEquals(0, debounce.getLightLevel(ID, TORCH, tick));
+            assertTrue("entity dropped as a candidate before its light turned on", debounce.isPending(ID));
+        }
+
+        assertEquals(TORCH, debounce.getLightLevel(ID, TORCH, equipped + MainMod.heldLightOnDelayTicks));
+        assertFalse(debounce.isPending(ID));
+    }
+
+    @Test
+    public void unequippedTorchGoesOutAfterOffDelay()
+    {
+        long tick = 0L;
+        while (debounce.getLightLevel(ID, TORCH, tick) != TORCH)
+        {
+            tick++;
+        }
+
+        long unequipped = tick + 1;
+        for (tick = unequipped; tick < unequipped + MainMod.heldLightOffDelayTicks; tick++)
+        {
+            assertEquals(TORCH, debounce.getLightLevel(ID, 0, tick));
+        }
+
+        assertEquals(0, debounce.getLightLevel(ID, 0, unequipped + MainMod.heldLightOffDelayTicks));
+        assertFalse(debounce.isPending(ID));
+    }
+
+    @Test
+    public void hotbarScrollPastTorchNeverLights()
+    {
+        assertEquals(0, debounce.getLightLevel(ID, TORCH, 10L));
+        assertEquals(0, debounce.getLightLevel(ID, 0, 11L));
+        assertFalse(debounce.isPending(ID));
+        assertEquals(0, debounce.getLightLevel(ID, 0, 20L));
+    }
+}
@@ -0,0 +1,281 @@
+package com.blogspot.michaelsebero.movinglightsource.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraftforge.common.util.Constants;
+
+public class RegionScrubberTest
+{
+    private static final int SECTOR_SIZE = 4096;
+    private static final int LIGHT_ID = 200;
+    private static final int EXTENDED_LIGHT_ID = 300;
+    private static final int STONE_ID = 1;
+
+    // Section indices are y << 8 | z << 4 | x
+    private static final int LIGHT_INDEX = 0;
+    private static final int EXTENDED_LIGHT_INDEX = 1 << 8 | 1 << 4 | 1;
+    private static final int STONE_INDEX = 2;
+    // Same low byte as the extended light, but no add nibble
+    private static final int LOW_BYTE_TWIN_INDEX = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scrubStripsLightsAndTheirTileEntitiesInPlace() throws IOException
+    {
+        File regionFile = writeRegion(fixtureChunk(), 2);
+
+        RegionScrubber scrubber = new RegionScrubber(lightIds(), 2, false);
+        RegionScrubber.Report report;
+        try
+        {
+            report = scrubber.scrubRegion(regionFile);
+        }
+        finally
+        {
+            scrubber.shutdown();
+        }
+
+        assertEquals(1, report.getChunks());
+        assertEquals(1, report.getRewritten());
+        assertEquals(2, report.getLights());
+        assertEquals(0, report.getCorrupt());
+
+        // The stripped chunk is smaller, so it stays at its offset and takes only the sectors it needs
+        assertEquals(2 << 8 | 1, readLocation(regionFile, 0));
+
+        NBTTagCompound level = readChunk(regionFile, 0).getCompoundTag("Level");
+        NBTTagCompound section = level.getTagList("Sections", Constants.NBT.TAG_COMPOUND).getCompoundTagAt(0);
+        byte[] blocks = section.getByteArray("Blocks");
+        byte[] add = section.getByteArray("Add");
+
+        assertEquals(0, blocks[LIGHT_INDEX]);
+        assertEquals(0, blocks[EXTENDED_LIGHT_INDEX]);
+        assertEquals(0, getNibble(add, EXTENDED_LIGHT_INDEX));
+        assertEquals(STONE_ID, blocks[STONE_INDEX]);
+        assertEquals(EXTENDED_LIGHT_ID & 255, blocks[LOW_BYTE_TWIN_INDEX] & 255);
+
+        NBTTagList tileEntities = level.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND);
+        assertEquals(1, tileEntities.tagCount());
+        assertEquals(STONE_INDEX, tileEntities.getCompoundTagAt(0).getInteger("x"));
+        assertFalse(level.getBoolean("LightPopulated"));
+    }
+
+    @Test
+    public void dryRunWritesNothing() throws IOException
+    {
+        File regionFile = writeRegion(fixtureChunk(), 2);
+        byte[] before = Files.readAllBytes(regionFile.toPath());
+
+        RegionScrubber scrubber = new RegionScrubber(lightIds(), 1, true);
+        try
+        {
+            assertEquals(2, scrubber.scrubRegion(regionFile).getLights());
+        }
+        finally
+        {
+            scrubber.shutdown();
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(regionFile.toPath()));
+    }
+
+    @Test
+    public void writeChunkKeepsChunksThatFitInPlace() throws IOException
+    {
+        File regionFile = writeRegion(fixtureChunk(), 2);
+        long sizeBefore = regionFile.length();
+
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "rw"))
+        {
+            RegionScrubber.writeChunk(file.getChannel(), 0, new byte[100]);
+        }
+
+        assertEquals(2 << 8 | 1, readLocation(regionFile, 0));
+        assertEquals(sizeBefore, regionFile.length());
+        assertEquals(101, readChunkLength(regionFile, 2));
+    }
+
+    @Test
+    public void writeChunkAppendsChunksThatOutgrowTheirSectors() throws IOException
+    {
+        File regionFile = writeRegion(fixtureChunk(), 1);
+        int endSector = (int) (regionFile.length() / SECTOR_SIZE);
+
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "rw"))
+        {
+            RegionScrubber.writeChunk(file.getChannel(), 0, new byte[SECTOR_SIZE + 100]);
+        }
+
+        assertEquals(endSector << 8 | 2, readLocation(regionFile, 0));
+        assertEquals((long) (endSector + 2) * SECTOR_SIZE, regionFile.length());
+        assertEquals(SECTOR_SIZE + 101, readChunkLength(regionFile, endSector));
+    }
+
+    private static IntOpenHashSet lightIds()
+    {
+        IntOpenHashSet lightIds = new IntOpenHashSet();
+        lightIds.add(LIGHT_ID);
+        lightIds.add(EXTENDED_LIGHT_ID);
+        return lightIds;
+    }
+
+    /**
+     * Chunk 0, 0 with one section: two lights, one of them past id 255, stone, and a block
+     * sharing the extended light's low byte; tile entities on a light and on the stone
+     */
+    private static NBTTagCompound fixtureChunk()
+    {
+        byte[] blocks = new byte[4096];
+        byte[] add = new byte[2048];
+        blocks[LIGHT_INDEX] = (byte) LIGHT_ID;
+        blocks[EXTENDED_LIGHT_INDEX] = (byte) EXTENDED_LIGHT_ID;
+        setNibble(add, EXTENDED_LIGHT_INDEX, EXTENDED_LIGHT_ID >> 8);
+        blocks[STONE_INDEX] = STONE_ID;
+        blocks[LOW_BYTE_TWIN_INDEX] = (byte) EXTENDED_LIGHT_ID;
+
+        NBTTagCompound section = new NBTTagCompound();
+        section.setByte("Y", (byte) 0);
+        section.setByteArray("Blocks", blocks);
+        section.setByteArray("Add", add);
+        section.setByteArray("Data", new byte[2048]);
+        NBTTagList sections = new NBTTagList();
+        sections.appendTag(section);
+
+        NBTTagList tileEntities = new NBTTagList();
+        tileEntities.appendTag(tileEntity(0, 0, 0));
+        tileEntities.appendTag(tileEntity(STONE_INDEX, 0, 0));
+
+        NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("xPos", 0);
+        level.setInteger("zPos", 0);
+        level.setBoolean("LightPopulated", true);
+        level.setTag("Sections", sections);
+        level.setTag("TileEntities", tileEntities);
+
+        NBTTagCompound root = new NBTTagCompound();
+        root.setTag("Level", level);
+        return root;
+    }
+
+    private static NBTTagCompound tileEntity(int x, int y, int z)
+    {
+        NBTTagCompound tileEntity = new NBTTagCompound();
+        tileEntity.setInteger("x", x);
+        tileEntity.setInteger("y", y);
+        tileEntity.setInteger("z", z);
+        return tileEntity;
+    }
+
+    /**
+     * Write a region file holding one zlib chunk at index 0, in sectorCount sectors after the header
+     */
+    private File writeRegion(NBTTagCompound chunk, int sectorCount) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes)))
+        {
+            CompressedStreamTools.write(chunk, out);
+        }
+        byte[] compressed = bytes.toByteArray();
+        if (compressed.length + 5 > sectorCount * SECTOR_SIZE)
+        {
+            throw new IllegalStateException("Fixture chunk doesn't fit in " + sectorCount + " sectors");
+        }
+
+        File regionDir = folder.newFolder("world", "region");
+        File regionFile = new File(regionDir, "r.0.0.mca");
+        ByteBuffer region = ByteBuffer.allocate((2 + sectorCount) * SECTOR_SIZE);
+        region.putInt(0, 2 << 8 | sectorCount);
+        region.position(2 * SECTOR_SIZE);
+        region.putInt(compressed.length + 1);
+        region.put((byte) 2);
+        region.put(compressed);
+        region.rewind();
+
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "rw"))
+        {
+            file.getChannel().write(region, 0);
+        }
+        return regionFile;
+    }
+
+    private static int readLocation(File regionFile, int index) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "r"))
+        {
+            file.seek(index * 4);
+            return file.readInt();
+        }
+    }
+
+    private static int readChunkLength(File regionFile, int sectorOffset) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "r"))
+        {
+            file.seek((long) sectorOffset * SECTOR_SIZE);
+            return file.readInt();
+        }
+    }
+
+    private static NBTTagCompound readChunk(File regionFile, int index) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(regionFile, "r"))
+        {
+            file.seek(index * 4);
+            int sectorOffset = file.readInt() >>> 8;
+            file.seek((long) sectorOffset * SECTOR_SIZE);
+            int length = file.readInt();
+            assertEquals(2, file.readByte());
+
+            byte[] compressed = new byte[length - 1];
+            file.readFully(compressed);
+            try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))))
+            {
+                return CompressedStreamTools.read(in);
+            }
+        }
+    }
+
+    private static int getNibble(byte[] nibbles, int index)
+    {
+        int value = nibbles[index >> 1];
+        return (index & 1) == 0 ? value & 15 : (value >> 4) & 15;
+    }
+
+    private static void setNibble(byte[] nibbles, int index, int value)
+    {
+        int i = index >> 1;
+        if ((index & 1) == 0)
+        {
+            nibbles[i] = (byte) ((nibbles[i] & 0xF0) | (value & 15));
+        }
+        else
+        {
+            nibbles[i] = (byte) ((nibbles[i] & 0x0F) | ((value & 15) << 4));
+        }
+    }
+}